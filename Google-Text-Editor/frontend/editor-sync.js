@@ -0,0 +1,283 @@
+/**
+ * Keeps the editor's vaadin-text-area and the server in step with positional
+ * edits, loaded once through @JsModule on CollaborativeTextArea.
+ *
+ * Up: every input event becomes one edit, [offset, deleteCount, text], sent
+ * with the caret and the last patch batch applied. The edit is read off the
+ * selection the beforeinput event saw and checked against the text before
+ * it; when that does not add up (IME composition, undo, a browser without
+ * beforeinput) it falls back to a prefix and suffix comparison.
+ *
+ * Down: patch batches come as flat offset, deleteCount, text triples. Edits
+ * the server had not received when it made the batch are still pending here,
+ * so the batch is rebased over them with the rules EditTransform.java uses on
+ * the server, and the pending edits over the batch. setRangeText in
+ * 'preserve' mode keeps the caret where the user put it. If the length comes
+ * out different from what the server expects, the client asks for the full
+ * text instead.
+ */
+const ACK_DELAY = 1000;
+
+// Splits [offset, deleteCount, text] edits into pure deletes and inserts
+function primitives(edits) {
+  const result = [];
+  for (const [offset, deleteCount, text] of edits) {
+    if (deleteCount > 0) {
+      result.push([offset, deleteCount, '']);
+    }
+    if (text.length > 0) {
+      result.push([offset, 0, text]);
+    }
+  }
+  return result;
+}
+
+// Returns [client edits after server, server edits after client]; server
+// inserts win position ties
+function transform(client, server) {
+  if (client.length === 0 || server.length === 0) {
+    return [client, server];
+  }
+  if (client.length > 1) {
+    const [c1, s1] = transform(client.slice(0, 1), server);
+    const [c2, s2] = transform(client.slice(1), s1);
+    return [c1.concat(c2), s2];
+  }
+  if (server.length > 1) {
+    const [c1, s1] = transform(client, server.slice(0, 1));
+    const [c2, s2] = transform(c1, server.slice(1));
+    return [c2, s1.concat(s2)];
+  }
+  return transformPrimitive(client[0], server[0]);
+}
+
+function transformPrimitive(c, s) {
+  const [cPos, cCount, cText] = c;
+  const [sPos, sCount, sText] = s;
+  if (cCount === 0 && sCount === 0) {
+    if (cPos < sPos) {
+      return [[c], [[sPos + cText.length, 0, sText]]];
+    }
+    return [[[cPos + sText.length, 0, cText]], [s]];
+  }
+  if (cCount === 0) {
+    const sEnd = sPos + sCount;
+    if (cPos <= sPos) {
+      return [[c], [[sPos + cText.length, sCount, '']]];
+    }
+    if (cPos >= sEnd) {
+      return [[[cPos - sCount, 0, cText]], [s]];
+    }
+    return [[[sPos, 0, cText]], [[sPos, cPos - sPos, ''], [sPos + cText.length, sEnd - cPos, '']]];
+  }
+  if (sCount === 0) {
+    const cEnd = cPos + cCount;
+    if (sPos <= cPos) {
+      return [[[cPos + sText.length, cCount, '']], [s]];
+    }
+    if (sPos >= cEnd) {
+      return [[c], [[sPos - cCount, 0, sText]]];
+    }
+    return [[[cPos, sPos - cPos, ''], [cPos + sText.length, cEnd - sPos, '']], [[cPos, 0, sText]]];
+  }
+  const overlap = Math.max(0, Math.min(cPos + cCount, sPos + sCount) - Math.max(cPos, sPos));
+  return [deleteAfter(cPos, cCount - overlap, sPos, sCount), deleteAfter(sPos, sCount - overlap, cPos, cCount)];
+}
+
+function deleteAfter(position, count, otherPosition, otherCount) {
+  if (count === 0) {
+    return [];
+  }
+  if (position <= otherPosition) {
+    return [[position, count, '']];
+  }
+  if (position >= otherPosition + otherCount) {
+    return [[position - otherCount, count, '']];
+  }
+  return [[otherPosition, count, '']];
+}
+
+function lengthChange(edits) {
+  let change = 0;
+  for (const [, deleteCount, text] of edits) {
+    change += text.length - deleteCount;
+  }
+  return change;
+}
+
+class EditSync {
+  constructor(host) {
+    this.host = host;
+    this.input = null;
+    // Server text plus the pending edits, which is what the user sees
+    this.text = host.value || '';
+    this.seen = 0;
+    this.sent = 0;
+    // Edits sent but not yet part of a batch, as { index, edits }
+    this.pending = [];
+    this.selection = null;
+    this.ackTimer = null;
+  }
+
+  listen(input) {
+    this.input = input;
+    input.addEventListener('beforeinput', () => {
+      this.selection = [input.selectionStart, input.selectionEnd];
+    });
+    input.addEventListener('input', (e) => {
+      if (!e.isComposing) {
+        this.capture();
+      }
+    });
+    input.addEventListener('compositionend', () => this.capture());
+  }
+
+  // Sends whatever changed in the input since the last known text
+  capture() {
+    const after = this.input.value;
+    const before = this.text;
+    const caret = this.input.selectionStart;
+    const selection = this.selection;
+    this.selection = null;
+    if (after === before) {
+      return;
+    }
+    const edit = this.fromSelection(before, after, selection, caret) || this.fromComparison(before, after);
+    this.text = after;
+    this.pending.push({ index: this.sent++, edits: primitives([edit]) });
+    clearTimeout(this.ackTimer);
+    this.ackTimer = null;
+    this.host.$server.applyEdit(this.seen, edit[0], edit[1], edit[2], caret);
+    if (this.host.__cursorLayer) {
+      // The caret went up with the edit
+      this.host.__cursorLayer.lastSent = caret;
+    }
+  }
+
+  // Typing, pasting and deleting replace the selection, leaving the caret
+  // after the inserted text
+  fromSelection(before, after, selection, caret) {
+    if (!selection) {
+      return null;
+    }
+    const offset = Math.min(selection[0], caret);
+    const inserted = caret - offset;
+    const deleteCount = inserted - (after.length - before.length);
+    if (deleteCount < 0 || offset + deleteCount > before.length) {
+      return null;
+    }
+    if (before.slice(0, offset) !== after.slice(0, offset)
+        || before.slice(offset + deleteCount) !== after.slice(offset + inserted)) {
+      return null;
+    }
+    return [offset, deleteCount, after.slice(offset, caret)];
+  }
+
+  fromComparison(before, after) {
+    const shorter = Math.min(before.length, after.length);
+    let start = 0;
+    while (start < shorter && before.charCodeAt(start) === after.charCodeAt(start)) {
+      start++;
+    }
+    let end = 0;
+    while (end < shorter - start
+        && before.charCodeAt(before.length - 1 - end) === after.charCodeAt(after.length - 1 - end)) {
+      end++;
+    }
+    return [start, before.length - start - end, after.slice(start, after.length - end)];
+  }
+
+  apply(version, acknowledged, patches, expectedLength) {
+    if (!this.input) {
+      this.host.$server.requestResync();
+      return;
+    }
+    // Anything typed but not captured yet, like an unfinished composition,
+    // has to be pending before the batch is rebased over it
+    this.capture();
+    this.drop(acknowledged);
+    const triples = [];
+    for (let i = 0; i < patches.length; i += 3) {
+      triples.push([patches[i], patches[i + 1], patches[i + 2]]);
+    }
+    let edits = primitives(triples);
+    for (const entry of this.pending) {
+      [entry.edits, edits] = transform(entry.edits, edits);
+    }
+    for (const [offset, deleteCount, text] of edits) {
+      if (offset + deleteCount > this.input.value.length) {
+        this.host.$server.requestResync();
+        return;
+      }
+      this.input.setRangeText(text, offset, offset + deleteCount, 'preserve');
+    }
+    // setRangeText fires no input event, so update the component's value
+    // too; with an equal value the browser leaves the caret alone
+    this.text = this.input.value;
+    this.host.value = this.text;
+    this.seen = version;
+
+    let expected = expectedLength;
+    for (const entry of this.pending) {
+      expected += lengthChange(entry.edits);
+    }
+    if (this.text.length !== expected) {
+      this.host.$server.requestResync();
+      return;
+    }
+    if (this.ackTimer === null) {
+      this.ackTimer = setTimeout(() => {
+        this.ackTimer = null;
+        this.host.$server.acknowledge(this.seen);
+      }, ACK_DELAY);
+    }
+  }
+
+  // Edits in flight are dropped by the server, so they are dropped here too
+  reset(version, value) {
+    this.pending = [];
+    this.seen = version;
+    this.text = value;
+    if (this.input) {
+      this.input.value = value;
+    }
+    this.host.value = value;
+  }
+
+  drop(acknowledged) {
+    while (this.pending.length > 0 && this.pending[0].index < acknowledged) {
+      this.pending.shift();
+    }
+  }
+}
+
+function stateOf(host) {
+  if (!host.__editSync) {
+    host.__editSync = new EditSync(host);
+  }
+  return host.__editSync;
+}
+
+window.editorSync = {
+  // Safe to call again, the listeners are only added once
+  attach(host) {
+    const sync = stateOf(host);
+    if (sync.input) {
+      return;
+    }
+    if (!host.inputElement) {
+      setTimeout(() => this.attach(host), 200);
+      return;
+    }
+    sync.text = host.inputElement.value;
+    sync.listen(host.inputElement);
+  },
+
+  apply(host, version, acknowledged, patches, expectedLength) {
+    stateOf(host).apply(version, acknowledged, patches, expectedLength);
+  },
+
+  reset(host, version, value) {
+    stateOf(host).reset(version, value);
+  }
+};
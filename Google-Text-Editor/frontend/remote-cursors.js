@@ -0,0 +1,171 @@
+/**
+ * Caret markers for the editor's vaadin-text-area, loaded once through
+ * @JsModule on EditorView.
+ *
+ * The server only sends cursor changes, as [userId, position, color, label]
+ * entries, and a position of -1 removes a marker. Markers are moved in
+ * place rather than rebuilt. Line starts are cached per text value, so
+ * placing a marker is a binary search instead of a split of the whole text.
+ */
+const CHAR_WIDTH = 8;
+const LINE_HEIGHT = 20;
+const PADDING = 4;
+const CARET_KEYS = ['ArrowLeft', 'ArrowRight', 'ArrowUp', 'ArrowDown', 'Home', 'End', 'PageUp', 'PageDown'];
+
+class CursorLayer {
+  constructor(host, color) {
+    this.host = host;
+    this.input = host.inputElement;
+    this.markers = new Map();
+    this.cachedValue = null;
+    this.lineStarts = [0];
+    this.lastSent = -1;
+    this.refreshQueued = false;
+    this.local = this.createMarker(color, 'You');
+    this.local.id = 'local-cursor-indicator';
+    this.local.style.opacity = '0.7';
+    this.local.style.zIndex = '9998';
+
+    const report = () => this.reportCaret();
+    for (const type of ['click', 'keyup', 'mouseup', 'focus', 'select']) {
+      this.input.addEventListener(type, report);
+    }
+    this.input.addEventListener('keydown', (e) => {
+      if (CARET_KEYS.includes(e.key)) {
+        setTimeout(report, 10);
+      }
+    });
+    const refresh = () => this.refresh();
+    this.input.addEventListener('input', refresh);
+    this.input.addEventListener('scroll', refresh);
+    host.addEventListener('value-changed', refresh);
+    window.addEventListener('resize', refresh);
+    this.reportCaret();
+  }
+
+  apply(updates) {
+    for (const [userId, position, color, label] of updates) {
+      let marker = this.markers.get(userId);
+      if (position < 0) {
+        if (marker) {
+          marker.element.remove();
+          this.markers.delete(userId);
+        }
+        continue;
+      }
+      if (!marker) {
+        marker = { element: this.createMarker(color, label), position };
+        marker.element.id = 'cursor-' + userId;
+        marker.element.className = 'remote-cursor';
+        this.markers.set(userId, marker);
+      }
+      marker.position = position;
+      this.place(marker.element, position);
+    }
+  }
+
+  // Sends the caret to the server, but only when it moved
+  reportCaret() {
+    const position = this.input.selectionStart;
+    this.place(this.local, position);
+    if (position !== this.lastSent && this.host.$server) {
+      this.lastSent = position;
+      this.host.$server.handleCursorPosition(position);
+    }
+  }
+
+  // Repositions every marker once per frame after the text or layout changed
+  refresh() {
+    if (this.refreshQueued) {
+      return;
+    }
+    this.refreshQueued = true;
+    requestAnimationFrame(() => {
+      this.refreshQueued = false;
+      for (const marker of this.markers.values()) {
+        this.place(marker.element, marker.position);
+      }
+      this.place(this.local, this.input.selectionStart);
+    });
+  }
+
+  createMarker(color, label) {
+    const element = document.createElement('div');
+    element.style.position = 'fixed';
+    element.style.width = '4px';
+    element.style.height = LINE_HEIGHT + 'px';
+    element.style.backgroundColor = color;
+    element.style.boxShadow = '0 0 5px ' + color;
+    element.style.pointerEvents = 'none';
+    element.style.zIndex = '9999';
+    const tag = document.createElement('div');
+    tag.className = 'cursor-label';
+    tag.textContent = label;
+    tag.style.position = 'absolute';
+    tag.style.top = '-20px';
+    tag.style.left = '-2px';
+    tag.style.padding = '2px 5px';
+    tag.style.borderRadius = '3px';
+    tag.style.backgroundColor = color;
+    tag.style.color = 'white';
+    tag.style.whiteSpace = 'nowrap';
+    element.appendChild(tag);
+    document.body.appendChild(element);
+    return element;
+  }
+
+  place(element, position) {
+    const value = this.input.value;
+    if (value !== this.cachedValue) {
+      this.cachedValue = value;
+      this.lineStarts = [0];
+      for (let i = value.indexOf('\n'); i >= 0; i = value.indexOf('\n', i + 1)) {
+        this.lineStarts.push(i + 1);
+      }
+    }
+    position = Math.min(Math.max(position, 0), value.length);
+    // Last line that starts at or before the position
+    let low = 0;
+    let high = this.lineStarts.length - 1;
+    while (low < high) {
+      const mid = (low + high + 1) >> 1;
+      if (this.lineStarts[mid] <= position) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    const rect = this.input.getBoundingClientRect();
+    const x = (position - this.lineStarts[low]) * CHAR_WIDTH + PADDING;
+    const y = low * LINE_HEIGHT + PADDING - this.input.scrollTop;
+    element.style.left = rect.left + x + 'px';
+    element.style.top = rect.top + y + 'px';
+  }
+}
+
+window.remoteCursors = {
+  // Safe to call again, a text area only ever gets one layer
+  attach(host, color) {
+    if (host.__cursorLayer) {
+      return;
+    }
+    if (!host.inputElement) {
+      setTimeout(() => this.attach(host, color), 200);
+      return;
+    }
+    host.__cursorLayer = new CursorLayer(host, color);
+    if (host.__pendingCursors) {
+      host.__cursorLayer.apply(host.__pendingCursors);
+      delete host.__pendingCursors;
+    }
+  },
+
+  apply(host, updates) {
+    if (host.__cursorLayer) {
+      host.__cursorLayer.apply(updates);
+    } else {
+      // Keep them until the layer exists
+      host.__pendingCursors = (host.__pendingCursors || []).concat(updates);
+    }
+  }
+};
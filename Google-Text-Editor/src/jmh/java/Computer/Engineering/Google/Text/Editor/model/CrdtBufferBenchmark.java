@@ -0,0 +1,148 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The CrdtBuffer operations an editor hits on every keystroke, on documents
+ * of 1k to 1M characters.
+ *
+ * Reads are measured per call. Edits change the document they measure, so
+ * each iteration starts from a fresh buffer of the given size and times a
+ * batch of BATCH edits, which keeps the size close to the parameter; their
+ * score is the time for the whole batch. getDocument() edits too, see there.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CrdtBufferBenchmark {
+    static final int BATCH = 500;
+    private static final int POSITIONS = 4096;
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int size;
+
+    CrdtBuffer buffer;
+    // Random fractions of the document, so positions stay valid as it changes
+    final double[] positions = new double[POSITIONS];
+    int next;
+    // Remote edits for merge(), one per call of the batch
+    final List<CrdtDelta> remoteDeltas = new ArrayList<>(BATCH);
+    int nextDelta;
+
+    @Setup(Level.Trial)
+    public void choosePositions() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < POSITIONS; i++) {
+            positions[i] = random.nextDouble();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fillBuffer() {
+        buffer = filledBuffer("bench", size);
+        next = 0;
+        // The remote site edits a replica of the same document
+        CrdtBuffer remote = new CrdtBuffer("bench-remote");
+        remote.merge(buffer.snapshot());
+        remoteDeltas.clear();
+        for (int i = 0; i < BATCH; i++) {
+            remote.insertRun(remote.getNodeAt(position(remote)), "typed");
+            remote.delete(remote.getNodeAt(position(remote)));
+            remoteDeltas.add(remote.takeLocalChanges());
+        }
+        nextDelta = 0;
+    }
+
+    static CrdtBuffer filledBuffer(String siteId, int size) {
+        CrdtBuffer buffer = new CrdtBuffer(siteId);
+        StringBuilder text = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        buffer.insertRun(CrdtIds.ROOT, text);
+        buffer.takeLocalChanges();
+        return buffer;
+    }
+
+    private int position(CrdtBuffer target) {
+        double fraction = positions[next++ & (POSITIONS - 1)];
+        return (int) (fraction * target.getVisibleLength());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void insert() {
+        // The string ID API, as the STOMP controller used to call it
+        buffer.insert('x', buffer.getNodeIdAtPosition(position(buffer)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long insertAndReturnId() {
+        return buffer.insertAndReturnId('x', buffer.getNodeAt(position(buffer)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void delete() {
+        buffer.delete(buffer.getNodeAt(position(buffer)));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int merge() {
+        return buffer.merge(remoteDeltas.get(nextDelta++));
+    }
+
+    /**
+     * The text is cached until the next change, so each call types a
+     * character first, as an editor reading the text after every keystroke
+     * does. Subtract insertAndReturnId for the materialization alone.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String getDocument() {
+        buffer.insertAndReturnId('x', buffer.getNodeAt(position(buffer)));
+        return buffer.getDocument();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void getNodeIdAtPosition(Blackhole blackhole) {
+        blackhole.consume(buffer.getNodeIdAtPosition(position(buffer)));
+    }
+}
@@ -0,0 +1,135 @@
+package Computer.Engineering.Google.Text.Editor.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Computer.Engineering.Google.Text.Editor.model.CrdtBuffer;
+import Computer.Engineering.Google.Text.Editor.model.CrdtDelta;
+import Computer.Engineering.Google.Text.Editor.model.VersionVector;
+
+/**
+ * Fan-out of one edit and of one cursor move to every listener of a session,
+ * from the broadcast call until the last listener has been handed the event
+ * on its delivery thread.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcasterBenchmark {
+    static final String SESSION = "bench";
+
+    @Param({ "10", "100", "1000", "10000" })
+    int listeners;
+
+    final List<CountingListener> registered = new ArrayList<>();
+    CrdtDelta delta;
+    // Counted down once per listener reached, replaced for every broadcast
+    volatile CountDownLatch delivered;
+    int cursorPosition;
+
+    final class CountingListener implements Broadcaster.BroadcastListener {
+        private final String userId;
+
+        CountingListener(String userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void receiveBroadcast(CrdtDelta delta) {
+            delivered.countDown();
+        }
+
+        @Override
+        public void receiveCursors(List<CursorUpdate> cursors) {
+            delivered.countDown();
+        }
+
+        @Override
+        public void receiveUserPresence(String userId, String role, boolean isOnline, String sessionCode) {
+        }
+
+        @Override
+        public void receiveDocumentRequest(String requesterId, String sessionCode, VersionVector known) {
+        }
+
+        @Override
+        public void receiveDocumentState(CrdtDelta documentState) {
+        }
+
+        @Override
+        public String getUserId() {
+            return userId;
+        }
+
+        @Override
+        public String getSessionCode() {
+            return SESSION;
+        }
+
+        @Override
+        public int getCursorPosition() {
+            // Nothing for the heartbeat to send, so only measured events arrive
+            return -1;
+        }
+
+        @Override
+        public String getUserColor() {
+            return "#000000";
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void register() {
+        for (int i = 0; i < listeners; i++) {
+            CountingListener listener = new CountingListener("bench-listener-" + i);
+            registered.add(listener);
+            Broadcaster.register(listener);
+        }
+        CrdtBuffer author = new CrdtBuffer("bench-author");
+        author.insertRun(0L, "typed");
+        delta = author.takeLocalChanges();
+    }
+
+    @TearDown(Level.Trial)
+    public void unregister() {
+        for (CountingListener listener : registered) {
+            Broadcaster.unregister(listener);
+        }
+        registered.clear();
+    }
+
+    @Benchmark
+    public void broadcastDelta() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(listeners);
+        delivered = latch;
+        Broadcaster.broadcast(delta, SESSION);
+        latch.await();
+    }
+
+    @Benchmark
+    public void broadcastCursor() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(listeners);
+        delivered = latch;
+        Broadcaster.broadcastCursor("bench-author", cursorPosition++, "#ff0000", SESSION);
+        latch.await();
+    }
+}
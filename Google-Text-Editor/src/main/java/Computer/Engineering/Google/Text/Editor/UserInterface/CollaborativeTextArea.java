@@ -0,0 +1,188 @@
+package Computer.Engineering.Google.Text.Editor.UserInterface;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.vaadin.flow.component.AttachEvent;
+import com.vaadin.flow.component.ClientCallable;
+import com.vaadin.flow.component.dependency.JsModule;
+import com.vaadin.flow.component.textfield.TextArea;
+import com.vaadin.flow.internal.nodefeature.ElementPropertyMap;
+
+import Computer.Engineering.Google.Text.Editor.model.TextPatch;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+
+/**
+ * TextArea that exchanges positional edits with the browser instead of whole
+ * values, in both directions. Remote changes go down as patches, and the
+ * browser captures what the user types from input events and sends it up as
+ * one edit with the caret, so a keystroke costs a few bytes and no diff of
+ * the document either way. See frontend/editor-sync.js for the client side.
+ *
+ * Edits and patches can cross on the wire. Each patch batch is numbered and
+ * each client edit names the last batch it had applied, so the server rebases
+ * the edit over the batches the client had not seen yet, and the client
+ * rebases those batches over its own unacknowledged edits (EditTransform).
+ * The model value is not kept up to date per edit; the document supplier is
+ * the authority.
+ */
+@JsModule("./editor-sync.js")
+public class CollaborativeTextArea extends TextArea {
+    // Batches kept for rebasing before the client is sent the whole text instead
+    static final int MAX_OUTSTANDING = 512;
+
+    /**
+     * Receives what the user does in the browser, on the UI thread
+     */
+    public interface EditHandler {
+        /**
+         * Applies edits typed in the browser, already rebased onto the
+         * server's text. Returns false if they did not fit the document,
+         * after which the client is sent the whole text.
+         */
+        boolean applyClientEdits(List<TextPatch> edits, int caret);
+
+        void caretMoved(int caret);
+    }
+
+    private static final class Batch {
+        final int version;
+        List<TextPatch> edits;
+
+        Batch(int version, List<TextPatch> edits) {
+            this.version = version;
+            this.edits = edits;
+        }
+    }
+
+    private final Supplier<String> document;
+    private EditHandler editHandler;
+    // Version of the last batch pushed; resyncs take a version too
+    private int sentVersion;
+    // Client edits made before this version were made on replaced text
+    private int resyncVersion;
+    // Client edits received so far, dropped ones included
+    private int receivedEdits;
+    // Batches the client has not confirmed, rebased over each client edit
+    private final ArrayDeque<Batch> outstanding = new ArrayDeque<>();
+
+    /**
+     * @param document the authoritative text, sent in full when the client
+     *                 reports that it drifted
+     */
+    public CollaborativeTextArea(Supplier<String> document) {
+        this.document = document;
+    }
+
+    public void setEditHandler(EditHandler editHandler) {
+        this.editHandler = editHandler;
+    }
+
+    /**
+     * Pushes patches that take the client to a text of newLength characters
+     */
+    public void applyPatches(List<TextPatch> patches, int newLength) {
+        if (patches.isEmpty()) {
+            return;
+        }
+        if (outstanding.size() == MAX_OUTSTANDING) {
+            replaceValue(document.get());
+            return;
+        }
+        int version = ++sentVersion;
+        outstanding.add(new Batch(version, EditTransform.primitives(patches)));
+
+        JsonArray payload = Json.createArray();
+        for (TextPatch patch : patches) {
+            payload.set(payload.length(), patch.getOffset());
+            payload.set(payload.length(), patch.getDeleteCount());
+            payload.set(payload.length(), patch.getText());
+        }
+        getElement().executeJs("window.editorSync.apply(this, $0, $1, $2, $3);",
+                version, receivedEdits, payload, newLength);
+    }
+
+    /**
+     * Replaces the client's text. Edits the client made on the old text and
+     * that are still in flight are dropped.
+     */
+    public void replaceValue(String value) {
+        int version = ++sentVersion;
+        resyncVersion = version;
+        outstanding.clear();
+        setModelValue(value, false);
+        getElement().getNode().getFeature(ElementPropertyMap.class).setProperty("value", value, false);
+        getElement().executeJs("window.editorSync.reset(this, $0, $1);", version, value);
+    }
+
+    /**
+     * True while patches are out that the client has not confirmed, so a
+     * value it sends may still lack them
+     */
+    public boolean hasUnconfirmedPatches() {
+        return !outstanding.isEmpty();
+    }
+
+    @Override
+    protected void onAttach(AttachEvent attachEvent) {
+        super.onAttach(attachEvent);
+        getElement().executeJs("window.editorSync.attach(this);");
+    }
+
+    /**
+     * One edit typed in the browser: deleteCount characters at offset
+     * replaced by text, on the client's text after batch seenVersion
+     */
+    @ClientCallable
+    private void applyEdit(int seenVersion, int offset, int deleteCount, String text, int caret) {
+        receivedEdits++;
+        if (editHandler == null || seenVersion < resyncVersion || seenVersion > sentVersion) {
+            return;
+        }
+        if (offset < 0 || deleteCount < 0 || text == null) {
+            // Not an edit the client could have made; start it over
+            replaceValue(document.get());
+            return;
+        }
+        confirm(seenVersion);
+        List<TextPatch> edits = EditTransform.primitives(List.of(new TextPatch(offset, deleteCount, text)));
+        for (Batch batch : outstanding) {
+            List<List<TextPatch>> rebased = EditTransform.transform(edits, batch.edits);
+            edits = rebased.get(0);
+            batch.edits = rebased.get(1);
+            caret = EditTransform.transformPosition(caret, batch.edits);
+        }
+        if (!editHandler.applyClientEdits(edits, caret)) {
+            replaceValue(document.get());
+        }
+    }
+
+    // Sent by an idle client, which otherwise confirms batches with its edits
+    @ClientCallable
+    private void acknowledge(int seenVersion) {
+        if (seenVersion >= resyncVersion && seenVersion <= sentVersion) {
+            confirm(seenVersion);
+        }
+    }
+
+    @ClientCallable
+    private void handleCursorPosition(int position) {
+        if (editHandler != null) {
+            editHandler.caretMoved(position);
+        }
+    }
+
+    // The client's text no longer matches what the patches assumed
+    @ClientCallable
+    private void requestResync() {
+        replaceValue(document.get());
+    }
+
+    private void confirm(int seenVersion) {
+        while (!outstanding.isEmpty() && outstanding.peek().version <= seenVersion) {
+            outstanding.poll();
+        }
+    }
+}
@@ -1,34 +1,53 @@
 package Computer.Engineering.Google.Text.Editor.UserInterface;
 
-import com.vaadin.flow.component.html.Div;
-
 /**
- * Simple tracking class for remote user cursors
+ * Server side state of one remote user's cursor. The marker itself lives in
+ * frontend/remote-cursors.js; this only remembers what the client was last
+ * told, so unchanged positions are never sent again.
  */
-public class CursorOverlay extends Div {
+public class CursorOverlay {
     private final String userId;
     private final String color;
     private final String role;
-    
+    private int position = -1;
+
     public CursorOverlay(String userId, String color, String role) {
         this.userId = userId;
         this.color = color;
         this.role = role;
     }
-    
-    public void updatePosition(int x, int y, int height) {
-        // This is now handled directly in JavaScript
+
+    /**
+     * Records a new position and returns whether the client needs to hear of it
+     */
+    public boolean moveTo(int position) {
+        if (this.position == position) {
+            return false;
+        }
+        this.position = position;
+        return true;
+    }
+
+    public int getPosition() {
+        return position;
     }
-    
+
     public String getUserId() {
         return userId;
     }
-    
+
     public String getColor() {
         return color;
     }
-    
+
     public String getRole() {
         return role;
     }
-}
\ No newline at end of file
+
+    /**
+     * Text of the marker's label: a short form of the user ID and the role
+     */
+    public String getLabel() {
+        return userId.substring(0, Math.min(userId.length(), 6)) + " (" + role + ")";
+    }
+}
@@ -0,0 +1,163 @@
+package Computer.Engineering.Google.Text.Editor.UserInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import Computer.Engineering.Google.Text.Editor.model.TextPatch;
+
+/**
+ * Rebases positional edits made concurrently by the browser and the server
+ * onto each other, so a keystroke typed while remote patches were on their
+ * way lands where the user meant it.
+ *
+ * Edits are lists of primitives, each a TextPatch that either only deletes
+ * or only inserts. Transforming a client list against a server list gives
+ * the client edits to apply after the server ones and the other way round,
+ * and both orders end with the same text. Server inserts win position ties.
+ * frontend/editor-sync.js runs the same rules on the client, so any change
+ * here has to be made there too.
+ */
+final class EditTransform {
+
+    private EditTransform() {
+    }
+
+    /**
+     * Splits patches into primitives, a delete followed by an insert at the
+     * same offset
+     */
+    static List<TextPatch> primitives(List<TextPatch> patches) {
+        List<TextPatch> result = new ArrayList<>(patches.size());
+        for (TextPatch patch : patches) {
+            if (patch.getDeleteCount() > 0) {
+                result.add(delete(patch.getOffset(), patch.getDeleteCount()));
+            }
+            if (patch.getInsertLength() > 0) {
+                result.add(insert(patch.getOffset(), patch.getText()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns {client edits to apply after server, server edits to apply
+     * after client}
+     */
+    static List<List<TextPatch>> transform(List<TextPatch> client, List<TextPatch> server) {
+        if (client.isEmpty() || server.isEmpty()) {
+            return List.of(client, server);
+        }
+        if (client.size() > 1) {
+            List<List<TextPatch>> head = transform(client.subList(0, 1), server);
+            List<List<TextPatch>> tail = transform(client.subList(1, client.size()), head.get(1));
+            return List.of(concat(head.get(0), tail.get(0)), tail.get(1));
+        }
+        if (server.size() > 1) {
+            List<List<TextPatch>> head = transform(client, server.subList(0, 1));
+            List<List<TextPatch>> tail = transform(head.get(0), server.subList(1, server.size()));
+            return List.of(tail.get(0), concat(head.get(1), tail.get(1)));
+        }
+        return transformPrimitive(client.get(0), server.get(0));
+    }
+
+    /**
+     * Net change in length the edits make
+     */
+    static int lengthChange(List<TextPatch> edits) {
+        int change = 0;
+        for (TextPatch edit : edits) {
+            change += edit.getInsertLength() - edit.getDeleteCount();
+        }
+        return change;
+    }
+
+    /**
+     * Moves a caret position past edits applied before it
+     */
+    static int transformPosition(int position, List<TextPatch> edits) {
+        for (TextPatch edit : edits) {
+            if (edit.getOffset() < position) {
+                position += edit.getInsertLength() - Math.min(edit.getDeleteCount(), position - edit.getOffset());
+            }
+        }
+        return position;
+    }
+
+    private static List<List<TextPatch>> transformPrimitive(TextPatch c, TextPatch s) {
+        int cPos = c.getOffset();
+        int sPos = s.getOffset();
+        boolean cInsert = c.getDeleteCount() == 0;
+        boolean sInsert = s.getDeleteCount() == 0;
+
+        if (cInsert && sInsert) {
+            if (cPos < sPos) {
+                return List.of(List.of(c), List.of(insert(sPos + c.getInsertLength(), s.getText())));
+            }
+            return List.of(List.of(insert(cPos + s.getInsertLength(), c.getText())), List.of(s));
+        }
+
+        if (cInsert) {
+            int sEnd = sPos + s.getDeleteCount();
+            if (cPos <= sPos) {
+                return List.of(List.of(c), List.of(delete(sPos + c.getInsertLength(), s.getDeleteCount())));
+            }
+            if (cPos >= sEnd) {
+                return List.of(List.of(insert(cPos - s.getDeleteCount(), c.getText())), List.of(s));
+            }
+            // Typed inside text the server deleted: keep the typing, delete
+            // around it
+            return List.of(List.of(insert(sPos, c.getText())),
+                    List.of(delete(sPos, cPos - sPos), delete(sPos + c.getInsertLength(), sEnd - cPos)));
+        }
+
+        if (sInsert) {
+            int cEnd = cPos + c.getDeleteCount();
+            if (sPos <= cPos) {
+                return List.of(List.of(delete(cPos + s.getInsertLength(), c.getDeleteCount())), List.of(s));
+            }
+            if (sPos >= cEnd) {
+                return List.of(List.of(c), List.of(insert(sPos - c.getDeleteCount(), s.getText())));
+            }
+            return List.of(List.of(delete(cPos, sPos - cPos), delete(cPos + s.getInsertLength(), cEnd - sPos)),
+                    List.of(insert(cPos, s.getText())));
+        }
+
+        // Two deletes: each keeps only what the other did not already remove
+        int overlap = Math.max(0,
+                Math.min(cPos + c.getDeleteCount(), sPos + s.getDeleteCount()) - Math.max(cPos, sPos));
+        return List.of(
+                deleteAfter(cPos, c.getDeleteCount() - overlap, sPos, s.getDeleteCount()),
+                deleteAfter(sPos, s.getDeleteCount() - overlap, cPos, c.getDeleteCount()));
+    }
+
+    // A delete at position of count characters, moved past another delete
+    private static List<TextPatch> deleteAfter(int position, int count, int otherPosition, int otherCount) {
+        if (count == 0) {
+            return List.of();
+        }
+        int moved;
+        if (position <= otherPosition) {
+            moved = position;
+        } else if (position >= otherPosition + otherCount) {
+            moved = position - otherCount;
+        } else {
+            moved = otherPosition;
+        }
+        return List.of(delete(moved, count));
+    }
+
+    private static List<TextPatch> concat(List<TextPatch> first, List<TextPatch> second) {
+        List<TextPatch> result = new ArrayList<>(first.size() + second.size());
+        result.addAll(first);
+        result.addAll(second);
+        return result;
+    }
+
+    private static TextPatch insert(int offset, String text) {
+        return new TextPatch(offset, 0, text);
+    }
+
+    private static TextPatch delete(int offset, int count) {
+        return new TextPatch(offset, count, "");
+    }
+}
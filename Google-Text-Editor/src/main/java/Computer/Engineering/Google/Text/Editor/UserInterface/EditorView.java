@@ -1,16 +1,22 @@
 package Computer.Engineering.Google.Text.Editor.UserInterface;
 
 import Computer.Engineering.Google.Text.Editor.model.CrdtBuffer;
-import Computer.Engineering.Google.Text.Editor.model.CrdtNode;
-import Computer.Engineering.Google.Text.Editor.model.SharedBuffer;
+import Computer.Engineering.Google.Text.Editor.model.CrdtDelta;
+import Computer.Engineering.Google.Text.Editor.model.CrdtIds;
+import Computer.Engineering.Google.Text.Editor.model.GarbageCollectionStats;
+import Computer.Engineering.Google.Text.Editor.model.SitePool;
+import Computer.Engineering.Google.Text.Editor.model.TextDiff;
+import Computer.Engineering.Google.Text.Editor.model.TextPatch;
+import Computer.Engineering.Google.Text.Editor.model.VersionVector;
+import Computer.Engineering.Google.Text.Editor.persistence.DocumentPersistence;
 import Computer.Engineering.Google.Text.Editor.sync.Broadcaster;
+import Computer.Engineering.Google.Text.Editor.sync.CausalStability;
+import Computer.Engineering.Google.Text.Editor.sync.CursorUpdate;
 import Computer.Engineering.Google.Text.Editor.services.UserRegistry;
 
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.orderedlayout.*;
-import com.vaadin.flow.component.textfield.TextArea;
 import com.vaadin.flow.router.Route;
-import com.vaadin.flow.component.page.PendingJavaScriptResult;
 import com.vaadin.flow.component.html.Span;
 import com.vaadin.flow.component.upload.receivers.MemoryBuffer;
 import com.vaadin.flow.component.textfield.TextField;
@@ -25,7 +31,6 @@ import java.util.List;
 import com.vaadin.flow.component.AttachEvent;
 import com.vaadin.flow.component.DetachEvent;
 
-import java.util.UUID;
 import java.util.Map;
 import java.util.HashMap;
 import com.vaadin.flow.server.VaadinSession;
@@ -35,44 +40,53 @@ import java.io.IOException;
 import java.io.ByteArrayInputStream;
 
 import com.vaadin.flow.server.StreamResource;
-import com.vaadin.flow.component.ClientCallable;
 import com.vaadin.flow.dom.Element;
+import com.vaadin.flow.component.dependency.JsModule;
 import com.vaadin.flow.component.dependency.StyleSheet;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.html.Div;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashSet;
+import elemental.json.Json;
+import elemental.json.JsonArray;
 import elemental.json.JsonObject;
 import elemental.json.JsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @Route("")
+@JsModule("./remote-cursors.js")
 @StyleSheet("context://styles/cursor-styles.css")
-public class EditorView extends VerticalLayout implements Broadcaster.BroadcastListener {
+public class EditorView extends VerticalLayout
+        implements Broadcaster.BroadcastListener, CollaborativeTextArea.EditHandler {
+    // Tombstones to let pile up before the first collection attempt
+    private static final int MIN_TOMBSTONES_TO_COLLECT = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(EditorView.class);
 
-    private final CrdtBuffer crdtBuffer = SharedBuffer.getInstance();
-    private TextArea editor;
-    private int cursorPosition = 0;
+    private final DocumentPersistence persistence;
+    private CollaborativeTextArea editor;
+    // Also read by the cursor heartbeat thread
+    private volatile int cursorPosition = 0;
 
     private final VerticalLayout userPanel = new VerticalLayout();
     private final UserRegistry userRegistry = UserRegistry.getInstance();
-    private final String userId = UUID.randomUUID().toString();
+    // This view's own replica of the session document, kept in sync through
+    // deltas. Its site name comes from a pool and goes back on detach, and
+    // doubles as the user ID, which the broadcaster matches against origins.
+    private final CrdtBuffer crdtBuffer = SitePool.open();
+    private final String userId = crdtBuffer.getSiteId();
+    private int collectTombstonesAt = MIN_TOMBSTONES_TO_COLLECT;
     private final String userColor = UserRegistry.getInstance().registerUser(userId, "", "editor"); // Initialize with
-    private final Map<String, Integer> userCursors = new HashMap<>();
     private String sessionCode = "";
     private TextField sessionCodeField;
     private Button joinSessionButton;
-    private String userRole = "editor";
+    private volatile String userRole = "editor";
     private final Map<String, String> userRoles = new HashMap<>();
     private final Map<String, CursorOverlay> cursorOverlays = new ConcurrentHashMap<>();
     private final Div cursorContainer = new Div();
 
-    private CrdtBuffer getCrdtBuffer() {
-        return sessionCode.isEmpty()
-                ? new CrdtBuffer("temp")
-                : SharedBuffer.getInstance(sessionCode);
-    }
-
-    public EditorView() {
+    public EditorView(DocumentPersistence persistence) {
+        this.persistence = persistence;
         VaadinSession.getCurrent().setAttribute("userId", userId);
         // Top Toolbar Buttons (Optional for future features like undo/redo)
         Button undoButton = new Button("Undo"); // Not yet wired
@@ -86,23 +100,15 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
         importUpload.addSucceededListener(event -> {
             try {
                 String content = new String(buffer.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-                // Clear the CRDT buffer before importing new content
-                crdtBuffer.clear();
-                // Insert each character into the CRDT buffer
-                String parentId = "0";
-                for (char c : content.toCharArray()) {
-                    crdtBuffer.insert(c, parentId);
-                    parentId = crdtBuffer.getNodeIdAtPosition(crdtBuffer.getDocument().length() - 1);
-                }
-                // Update the editor value (this will trigger valueChangeListener, but you can
-                // skip broadcasting there)
-                editor.setValue(content);
-                // Broadcast the new buffer state to all users
-                Broadcaster.broadcast(
-                        new ArrayList<>(crdtBuffer.getAllNodes()),
-                        new ArrayList<>(crdtBuffer.getDeletedNodes()), sessionCode);
+                // Delete the current content so the other replicas drop it too
+                crdtBuffer.deleteRange(0, crdtBuffer.getVisibleLength());
+                // Insert the whole file as one run at the start of the document
+                crdtBuffer.insertRun(CrdtIds.ROOT, content);
+                editor.replaceValue(content);
+                // Broadcast the import as a single delta to all users
+                publishLocalChanges();
             } catch (IOException e) {
-                e.printStackTrace();
+                logger.error("Reading the imported file failed", e);
             }
         });
         importUpload.setUploadButton(new Button("Import"));
@@ -123,7 +129,7 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
         // Configure the export button
         exportButton.addClickListener(e -> {
             // Get the document content
-            String content = editor.getValue();
+            String content = crdtBuffer.getDocument();
 
             StreamResource resource = new StreamResource("document.txt",
                     () -> new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
@@ -153,118 +159,39 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
         topBanner.getStyle().set("background-color", "#f0f0f0").set("padding", "10px");
 
         // Editor Setup: TextArea with CRDT logic for typing
-        editor = new TextArea();
+        editor = new CollaborativeTextArea(crdtBuffer::getDocument);
         editor.setWidthFull();
         editor.setHeightFull();
         editor.getStyle().set("resize", "none");
         editor.setReadOnly(false); // Allow text editing
 
-        // Add JS listener to update cursor position
-        editor.getElement().addEventListener("input", e -> {
-            PendingJavaScriptResult js = editor.getElement().executeJs(
-                    "return this.inputElement.selectionStart;");
-            js.then(Integer.class, pos -> {
-                cursorPosition = pos;
-                Broadcaster.broadcastCursor(userId, cursorPosition, userColor, sessionCode);
-            });
-        });
-
-        // Add comprehensive cursor tracking events
-        editor.getElement().executeJs("""
-                    this.addEventListener('click', function() {
-                        console.log('Cursor click: ' + this.inputElement.selectionStart);
-                        this.$server.handleCursorPosition(this.inputElement.selectionStart);
-                    });
-                    this.addEventListener('keyup', function(e) {
-                        if (e.key.startsWith('Arrow') || e.key == 'Home' || e.key == 'End') {
-                            console.log('Cursor keyup: ' + this.inputElement.selectionStart);
-                            this.$server.handleCursorPosition(this.inputElement.selectionStart);
-                        }
-                    });
-                    this.addEventListener('focus', function() {
-                        console.log('Cursor focus: ' + this.inputElement.selectionStart);
-                        this.$server.handleCursorPosition(this.inputElement.selectionStart);
-                    });
-                """);
+        // Typing arrives as positional edits with the caret (applyClientEdits),
+        // and caret moves through caretMoved
+        editor.setEditHandler(this);
 
+        // Fallback for a value the browser sends that the edits did not
+        // account for
         editor.addValueChangeListener(event -> {
             if (!event.isFromClient())
                 return;
 
             String newText = event.getValue();
             String oldText = crdtBuffer.getDocument();
-
-            System.out.println("Value change event - cursor at: " + cursorPosition);
-            System.out.println("Old text: '" + oldText + "'");
-            System.out.println("New text: '" + newText + "'");
-
-            int oldLen = oldText.length();
-            int newLen = newText.length();
-
-            int start = 0;
-            while (start < Math.min(oldLen, newLen) && oldText.charAt(start) == newText.charAt(start)) {
-                start++;
+            if (newText.equals(oldText)) {
+                return; // Already applied as edits
             }
-
-            int endOld = oldLen - 1;
-            int endNew = newLen - 1;
-            while (endOld >= start && endNew >= start && oldText.charAt(endOld) == newText.charAt(endNew)) {
-                endOld--;
-                endNew--;
-            }
-
-            System.out.println("Diffing results - start: " + start + ", endOld: " + endOld + ", endNew: " + endNew);
-
-            // Improved deletion logic
-            if (endOld >= start) {
-                System.out.println("Deleting characters from position " + start + " to " + endOld);
-                
-                // First, identify all specific nodes that need deletion
-                List<String> nodesToDelete = new ArrayList<>();
-                for (int pos = start; pos <= endOld; pos++) {
-                    String nodeId = crdtBuffer.getNodeIdAtPosition(pos);
-                    if (!nodeId.equals("0")) {
-                        nodesToDelete.add(nodeId);
-                        System.out.println("Marking node for deletion: " + nodeId + " at position " + pos);
-                    }
-                }
-                
-                // Then delete them one by one
-                for (String nodeId : nodesToDelete) {
-                    String[] parts = nodeId.split("-");
-                    System.out.println("Deleting node: " + nodeId);
-                    crdtBuffer.delete(parts[0], Integer.parseInt(parts[1]));
-                }
-            }
-
-            // If there are insertions
-            if (start <= endNew) {
-                // This is the key fix - use cursor position to determine insertion point
-                int insertionPoint = start; // The diffing position is your actual insertion point
-                System.out.println("Insertion point: " + insertionPoint);
-
-                // Get the node ID exactly at insertionPoint - 1 (character before cursor)
-                String parentId = (insertionPoint == 0) ? "0" : crdtBuffer.getNodeIdAtPosition(insertionPoint - 1);
-                System.out.println("Using parent ID: " + parentId + " for insertion at position " + insertionPoint);
-
-                // Insert characters one by one, with the first character having the parent ID
-                // determined above
-                for (int i = start; i <= endNew; i++) {
-                    char c = newText.charAt(i);
-                    String newNodeId = crdtBuffer.insertAndReturnId(c, parentId);
-                    // Important: use the newly inserted node as parent for the next insertion
-                    parentId = newNodeId;
-                    System.out.println("Inserted '" + c + "' with parent: " + parentId);
-                }
+            if (editor.hasUnconfirmedPatches()) {
+                // The value may just lack remote changes still on their way,
+                // and diffing it would undo them
+                editor.replaceValue(oldText);
+                return;
             }
 
-            Broadcaster.broadcast(
-                    new ArrayList<>(crdtBuffer.getAllNodes()),
-                    new ArrayList<>(crdtBuffer.getDeletedNodes()), sessionCode);
-
-            // Debug: print the resulting document and CRDT tree
-            System.out.println("Final document: '" + crdtBuffer.getDocument() + "'");
-            crdtBuffer.printBuffer();
+            // Only the changed runs become operations, however many separate
+            // places changed
+            applyToBuffer(TextDiff.diff(oldText, newText));
+            // Start the client's edit tracking over from the merged text
+            editor.replaceValue(crdtBuffer.getDocument());
         });
 
         // userColor is already initialized during declaration
@@ -295,7 +222,6 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
 
         addEditorStyles();
         setupEnhancedCursorTracking();
-        schedulePeriodicCursorUpdates();
 
         editor.getElement().getParent().appendChild(cursorContainer.getElement());
         cursorContainer.getStyle()
@@ -312,9 +238,6 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
         editor.addAttachListener(event -> {
             // Ensure cursor tracking is initialized after the component is attached
             getUI().ifPresent(ui -> ui.access(() -> {
-                ui.getPage().executeJs(
-                    "console.log('Editor attached, initializing cursors...');"
-                );
                 setupEnhancedCursorTracking();
                 addCursorStyles();
             }));
@@ -355,228 +278,90 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
         });
     }
 
-    private void renderRemoteCursors() {
-        getUI().ifPresent(ui -> ui.access(() -> {
-            System.out.println("Rendering remote cursors. Active users: " + userCursors.size());
-            
-            // Using a self-contained approach that doesn't rely on external function definitions
-            editor.getElement().executeJs(
-                // Define the cursor creation function and immediately execute it for each cursor
-                "(() => {" +
-                    // First clean up any old cursors
-                    "document.querySelectorAll('.remote-cursor').forEach(el => el.remove());" +
-                    
-                    // Function to safely create a cursor (defined inside the IIFE)
-                    "function createCursorElement(userId, position, color, name, role) {" +
-                        "try {" +
-                            "const ta = document.querySelector('vaadin-text-area').inputElement;" +
-                            "if (!ta) return false;" +
-                            
-                            // Create cursor element
-                            "const cursor = document.createElement('div');" +
-                            "cursor.className = 'remote-cursor';" +
-                            "cursor.id = 'cursor-' + userId;" +
-                            "cursor.style.position = 'absolute';" +
-                            "cursor.style.backgroundColor = color;" +
-                            "cursor.style.width = '4px';" +
-                            "cursor.style.height = '20px';" +
-                            "cursor.style.zIndex = '9999';" +
-                            "cursor.style.pointerEvents = 'none';" +
-                            
-                            // Add user label
-                            "const label = document.createElement('div');" +
-                            "label.className = 'cursor-label';" +
-                            "label.style.backgroundColor = color;" +
-                            "label.style.color = 'white';" +
-                            "label.style.padding = '2px 5px';" +
-                            "label.style.borderRadius = '3px';" +
-                            "label.style.position = 'absolute';" +
-                            "label.style.top = '-20px';" +
-                            "label.style.left = '-2px';" +
-                            "label.textContent = name + ' (' + role + ')';" +
-                            "cursor.appendChild(label);" +
-                            
-                            // Calculate position
-                            "const rect = ta.getBoundingClientRect();" +
-                            "const doc = ta.value.substring(0, position);" +
-                            "const lines = doc.split('\\n');" +
-                            "const lineIdx = lines.length - 1;" +
-                            "const lineText = lines[lineIdx];" +
-                            "const charWidth = 8;" + 
-                            "const lineHeight = 20;" +
-                            
-                            "const xPos = lineText.length * charWidth + 4;" +
-                            "const yPos = lineIdx * lineHeight + 4;" +
-                            
-                            "cursor.style.left = xPos + 'px';" +
-                            "cursor.style.top = yPos + 'px';" +
-                            
-                            // Add to DOM - directly to document body for better visibility
-                            "document.body.appendChild(cursor);" +
-                            
-                            // Position relative to textarea
-                            "const taRect = ta.getBoundingClientRect();" +
-                            "cursor.style.position = 'fixed';" +
-                            "cursor.style.left = (taRect.left + xPos) + 'px';" +
-                            "cursor.style.top = (taRect.top + yPos) + 'px';" +
-                            
-                            // Add animation
-                            "cursor.animate([" +
-                                "{opacity: 1}, {opacity: 0.5}, {opacity: 1}" +
-                            "], {" +
-                                "duration: 1500, iterations: Infinity" +
-                            "});" +
-                            
-                            "console.log('Created cursor for user:', name, 'at position:', position);" +
-                            "return true;" +
-                        "} catch(e) {" +
-                            "console.error('Error creating cursor:', e);" +
-                            "return false;" +
-                        "}" +
-                    "}" +
-                    
-                    // Return the function for multiple calls
-                    "return createCursorElement;" +
-                "})()($0, $1, $2, $3, $4)"
-            );
-            
-            // Now create each cursor one by one using separate calls
-            userCursors.forEach((id, pos) -> {
-                if (!id.equals(userId) && pos >= 0) {
-                    String color = userRegistry.getUserColor(id);
-                    String role = userRegistry.getUserRole(id);
-                    String shortId = id.substring(0, Math.min(id.length(), 6));
-                    
-                    // Each call is self-contained and doesn't rely on external functions
-                    editor.getElement().executeJs(
-                        "(() => {" +
-                            "try {" +
-                                "const ta = document.querySelector('vaadin-text-area').inputElement;" +
-                                "if (!ta) return false;" +
-                                
-                                "const userId = $0;" +
-                                "const position = $1;" +
-                                "const color = $2;" +
-                                "const name = $3;" +
-                                "const role = $4;" +
-                                
-                                // Create cursor with unique ID
-                                "const cursor = document.createElement('div');" +
-                                "cursor.id = 'cursor-' + userId;" +
-                                "cursor.className = 'remote-cursor';" +
-                                "cursor.style.position = 'fixed';" +
-                                "cursor.style.backgroundColor = color;" +
-                                "cursor.style.width = '4px';" +
-                                "cursor.style.height = '20px';" +
-                                "cursor.style.zIndex = '9999';" +
-                                "cursor.style.pointerEvents = 'none';" +
-                                "cursor.style.boxShadow = '0 0 5px ' + color;" +
-                                
-                                // Add user label
-                                "const label = document.createElement('div');" +
-                                "label.className = 'cursor-label';" +
-                                "label.style.backgroundColor = color;" +
-                                "label.style.color = 'white';" +
-                                "label.style.padding = '2px 5px';" +
-                                "label.style.borderRadius = '3px';" +
-                                "label.style.position = 'absolute';" +
-                                "label.style.top = '-20px';" +
-                                "label.style.left = '-2px';" +
-                                "label.style.whiteSpace = 'nowrap';" +
-                                "label.textContent = name + ' (' + role + ')';" +
-                                "cursor.appendChild(label);" +
-                                
-                                // Calculate position
-                                "const rect = ta.getBoundingClientRect();" +
-                                "const doc = ta.value.substring(0, position);" +
-                                "const lines = doc.split('\\n');" +
-                                "const lineIdx = lines.length - 1;" +
-                                "const lineText = lines[lineIdx];" +
-                                "const charWidth = 8;" + 
-                                "const lineHeight = 20;" +
-                                
-                                // Calculate exact position
-                                "const xPos = lineText.length * charWidth;" +
-                                "const yPos = lineIdx * lineHeight;" +
-                                "cursor.style.left = (rect.left + xPos + 5) + 'px';" +
-                                "cursor.style.top = (rect.top + yPos + 5) + 'px';" +
-                                
-                                // Add directly to body
-                                "document.body.appendChild(cursor);" +
-                                
-                                // Add animation
-                                "cursor.animate([" +
-                                    "{opacity: 1}, {opacity: 0.5}, {opacity: 1}" +
-                                "], {" +
-                                    "duration: 1500, iterations: Infinity" +
-                                "});" +
-                                
-                                "console.log('Created cursor for ' + name);" +
-                            "} catch(e) {" +
-                                "console.error('Error creating cursor:', e);" +
-                            "}" +
-                        "})();",
-                        id, pos, color, shortId, role
-                    );
-                }
-            });
-        }));
+    /**
+     * Sends the client cursor module the markers that changed. Each entry is
+     * [userId, position, color, label], and a position of -1 removes the marker.
+     */
+    private void sendCursorChanges(List<CursorOverlay> changed) {
+        JsonArray updates = Json.createArray();
+        for (CursorOverlay overlay : changed) {
+            JsonArray entry = Json.createArray();
+            entry.set(0, overlay.getUserId());
+            entry.set(1, overlay.getPosition());
+            entry.set(2, overlay.getColor());
+            entry.set(3, overlay.getLabel());
+            updates.set(updates.length(), entry);
+        }
+        editor.getElement().executeJs("window.remoteCursors.apply(this, $0);", updates);
     }
 
     // Server push updates (for real-time syncing)
     @Override
-    public void receiveBroadcast(List<CrdtNode> incomingNodes, List<CrdtNode> incomingDeleted) {
+    public void receiveBroadcast(CrdtDelta delta) {
+        if (crdtBuffer.getSiteId().equals(delta.getOriginSiteId())) {
+            return; // Our own edit, already applied locally
+        }
         getUI().ifPresent(ui -> ui.access(() -> {
-            crdtBuffer.merge(incomingNodes, incomingDeleted);
-            String doc = crdtBuffer.getDocument();
-            int pos = cursorPosition; // Save current cursor position
-
-            editor.setValue(doc);
-
-            // Restore cursor position (if possible)
-            editor.getElement().executeJs(
-                    "this.inputElement.setSelectionRange($0, $0);",
-                    Math.min(pos, doc.length()));
-
-            // Add this line to update remote cursors after document changes
-            renderRemoteCursors();
+            List<TextPatch> patches = crdtBuffer.mergeWithPatches(delta);
+            reportVersion();
+            // Only the changed ranges go to the browser, which keeps the
+            // caret in place itself. The cursor module moves the remote
+            // markers when the value changes.
+            editor.applyPatches(patches, crdtBuffer.getVisibleLength());
         }));
     }
 
     @Override
-    public void receiveCursor(String remoteUserId, int pos, String color) {
-        // Don't process your own cursor updates
-        if (!remoteUserId.equals(userId)) {
-            getUI().ifPresent(ui -> ui.access(() -> {
-                // Store cursor position
-                userCursors.put(remoteUserId, pos);
-                
-                // Log for debugging
-                System.out.println("Received cursor update from " + remoteUserId + " at position " + pos);
-                
-                // Immediately render cursors for faster response
-                renderRemoteCursors();
-            }));
-        }
+    public void receiveCursors(List<CursorUpdate> cursors) {
+        getUI().ifPresent(ui -> ui.access(() -> {
+            List<CursorOverlay> changed = new ArrayList<>();
+            for (CursorUpdate cursor : cursors) {
+                // Don't process your own cursor updates
+                if (cursor.getUserId().equals(userId)) {
+                    continue;
+                }
+                if (cursor.getPosition() < 0) {
+                    CursorOverlay gone = cursorOverlays.remove(cursor.getUserId());
+                    if (gone != null && gone.moveTo(-1)) {
+                        changed.add(gone);
+                    }
+                    continue;
+                }
+                CursorOverlay overlay = cursorOverlays.computeIfAbsent(cursor.getUserId(),
+                        id -> new CursorOverlay(id, cursor.getColor(), userRegistry.getUserRole(id)));
+                if (overlay.moveTo(cursor.getPosition())) {
+                    changed.add(overlay);
+                }
+            }
+            // One call for the whole batch, and none for a heartbeat that
+            // changed nothing
+            if (!changed.isEmpty()) {
+                sendCursorChanges(changed);
+            }
+        }));
     }
 
     @Override
-    public void receiveDocumentRequest(String requesterId, String sessionCode) {
-        if (this.sessionCode.equals(sessionCode)) {
-            Broadcaster.sendDocumentState(requesterId, getCrdtBuffer().getDocument());
+    public void receiveDocumentRequest(String requesterId, String sessionCode, VersionVector known) {
+        if (!requesterId.equals(userId) && getBaseSessionCode(this.sessionCode).equals(sessionCode)) {
+            getUI().ifPresent(ui -> ui.access(() -> {
+                // Only what the requester has not merged yet, not the document
+                CrdtDelta missing = crdtBuffer.changesSince(known);
+                if (!missing.isEmpty()) {
+                    Broadcaster.sendDocumentState(requesterId, missing);
+                }
+            }));
         }
     }
 
     @Override
-    public void receiveDocumentState(String documentContent) {
+    public void receiveDocumentState(CrdtDelta documentState) {
         getUI().ifPresent(ui -> ui.access(() -> {
-            getCrdtBuffer().clear();
-            String parentId = "0";
-            for (char c : documentContent.toCharArray()) {
-                getCrdtBuffer().insert(c, parentId);
-                parentId = getCrdtBuffer().getNodeIdAtPosition(getCrdtBuffer().getDocument().length() - 1);
-            }
-            editor.setValue(documentContent);
+            // Merging keeps the peer's node IDs, so later deltas line up, and
+            // operations more than one peer sent are only applied once
+            List<TextPatch> patches = crdtBuffer.mergeWithPatches(documentState);
+            reportVersion();
+            editor.applyPatches(patches, crdtBuffer.getVisibleLength());
         }));
     }
 
@@ -592,10 +377,12 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
             } else {
                 userRoles.remove(userId);
                 userRegistry.unregisterUserFromSession(userId, sessionCode);
-                userCursors.remove(userId);
+                CursorOverlay gone = cursorOverlays.remove(userId);
+                if (gone != null && gone.moveTo(-1)) {
+                    sendCursorChanges(List.of(gone));
+                }
             }
             updateUserPanel();
-            renderRemoteCursors();
         }));
     }
 
@@ -609,6 +396,17 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
         return this.sessionCode;
     }
 
+    @Override
+    public int getCursorPosition() {
+        // Viewers don't share a cursor
+        return "viewer".equals(userRole) ? -1 : cursorPosition;
+    }
+
+    @Override
+    public String getUserColor() {
+        return userColor;
+    }
+
     @Override
     protected void onAttach(AttachEvent attachEvent) {
         Broadcaster.register(this);
@@ -657,20 +455,70 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
     @Override
     protected void onDetach(DetachEvent detachEvent) {
         Broadcaster.unregister(this);
+        CausalStability.remove(sessionCode, userId);
         userRegistry.unregisterUser(userId);
-        userCursors.remove(userId);
         Broadcaster.broadcastCursor(userId, -1, userColor, sessionCode); // -1 means "gone"
         updateUserPanel();
+        // Last, once nothing goes out under the name any more
+        SitePool.close(crdtBuffer);
     }
 
-    // Add ClientCallable method to receive cursor position updates
-    @ClientCallable
-    private void handleCursorPosition(int position) {
+    @Override
+    public boolean applyClientEdits(List<TextPatch> edits, int caret) {
+        if ("viewer".equals(userRole)) {
+            return false;
+        }
+        boolean fits = applyToBuffer(edits);
+        if (fits) {
+            caretMoved(caret);
+        }
+        return fits;
+    }
+
+    /**
+     * Applies patches to the buffer as range deletes and insert runs, and
+     * broadcasts the resulting operations. Returns false if a patch reached
+     * outside the document; the ones before it are kept.
+     */
+    private boolean applyToBuffer(List<TextPatch> edits) {
+        boolean fits = true;
+        for (TextPatch edit : edits) {
+            int offset = edit.getOffset();
+            // Subtracted, so a huge count cannot overflow past the check
+            if (offset < 0 || edit.getDeleteCount() < 0
+                    || edit.getDeleteCount() > crdtBuffer.getVisibleLength() - offset) {
+                fits = false;
+                break;
+            }
+            crdtBuffer.deleteRange(offset, edit.getDeleteCount());
+            if (edit.getInsertLength() > 0) {
+                long parentId = offset == 0 ? CrdtIds.ROOT : crdtBuffer.getNodeAt(offset - 1);
+                crdtBuffer.insertRun(parentId, edit.getText());
+            }
+        }
+        // Only the operations of these edits go out, not the whole buffer
+        publishLocalChanges();
+        return fits;
+    }
+
+    /**
+     * Sends the buffer's pending local operations to the session and queues
+     * them to be saved
+     */
+    private void publishLocalChanges() {
+        CrdtDelta delta = crdtBuffer.takeLocalChanges();
+        Broadcaster.broadcast(delta, sessionCode);
+        if (!sessionCode.isEmpty()) {
+            persistence.record(getBaseSessionCode(sessionCode), delta);
+        }
+        reportVersion();
+    }
+
+    @Override
+    public void caretMoved(int caret) {
         // Only broadcast cursor if we're an editor, not a viewer
         if (!"viewer".equals(userRole)) {
-            System.out.println("Cursor position updated: " + position);
-            cursorPosition = position;
-            userCursors.put(userId, position);
+            cursorPosition = caret;
             Broadcaster.broadcastCursor(userId, cursorPosition, userColor, sessionCode);
         }
     }
@@ -684,25 +532,63 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
         String code = sessionCodeField.getValue().trim();
         if (!code.isEmpty()) {
             // Clean up from previous session if any
+            String previousBaseSessionCode = getBaseSessionCode(sessionCode);
             if (!sessionCode.isEmpty()) {
-                Broadcaster.broadcastPresence(userId, userRole, false, getBaseSessionCode(sessionCode));
-                userRegistry.unregisterUserFromSession(userId, getBaseSessionCode(sessionCode));
+                Broadcaster.broadcastPresence(userId, userRole, false, previousBaseSessionCode);
+                userRegistry.unregisterUserFromSession(userId, previousBaseSessionCode);
+                CausalStability.remove(sessionCode, userId);
             }
 
             this.sessionCode = code;
             this.userRole = code.endsWith("-view") ? "viewer" : "editor";
+            // Move this view to the new session in the broadcaster's index
+            Broadcaster.updateSession(this);
 
             // Register with base session code
             String baseSessionCode = getBaseSessionCode(code);
             userRegistry.registerUser(userId, baseSessionCode, userRole);
+            // Rejoining the same document, as when switching between viewing
+            // and editing, keeps the buffer, so catching up costs only what
+            // was missed. Otherwise start from what the session last saved,
+            // which survives restarts.
+            if (!baseSessionCode.equals(previousBaseSessionCode)) {
+                crdtBuffer.clear();
+                crdtBuffer.setSessionCode(baseSessionCode);
+                crdtBuffer.merge(persistence.restore(baseSessionCode));
+                collectTombstonesAt = MIN_TOMBSTONES_TO_COLLECT;
+            }
+            // Collection in the session only covers what this replica has
+            // merged, so it is held back by what the peers still have to send
+            reportVersion();
+            editor.replaceValue(crdtBuffer.getDocument());
             editor.setVisible(true);
             editor.setReadOnly("viewer".equals(userRole));
             Broadcaster.broadcastPresence(userId, userRole, true, baseSessionCode);
-            Broadcaster.requestDocumentState(userId, baseSessionCode);
+            // Peers answer with only the operations this version lacks
+            Broadcaster.requestDocumentState(userId, baseSessionCode, crdtBuffer.getVersionVector());
             updateUserPanel();
         }
     }
 
+    /**
+     * Tells the session what this replica has merged, and collects tombstones
+     * once enough have piled up since the last attempt
+     */
+    private void reportVersion() {
+        if (sessionCode.isEmpty()) {
+            return;
+        }
+        CausalStability.report(sessionCode, userId, crdtBuffer.getVersionVector());
+        if (crdtBuffer.getTombstoneCount() > collectTombstonesAt) {
+            GarbageCollectionStats stats = crdtBuffer.collectGarbage(
+                    CausalStability.stable(sessionCode), CausalStability.reportedOwnClocks(sessionCode));
+            // Tombstones that could not go yet are only worth another pass
+            // after as many again have been added
+            collectTombstonesAt = stats.getRemainingTombstones()
+                    + Math.max(MIN_TOMBSTONES_TO_COLLECT, crdtBuffer.getVisibleLength());
+        }
+    }
+
     private String getBaseSessionCode(String code) {
         // Remove -view or -edit suffix if present
         if (code.endsWith("-view") || code.endsWith("-edit")) {
@@ -752,190 +638,15 @@ public class EditorView extends VerticalLayout implements Broadcaster.BroadcastL
         editor.getElement().executeJs(
                 "this.inputElement.style.caretColor = $0;" +
                 // Add a subtle glow effect to the caret
-                "this.inputElement.style.textShadow = '0 0 0.5px ' + $0;" +
-                "console.log('Applied custom caret color: ' + $0);",
+                "this.inputElement.style.textShadow = '0 0 0.5px ' + $0;",
                 userColor
         );
     }
 
     private void setupEnhancedCursorTracking() {
-        editor.getElement().executeJs(
-            // Use a global registry approach instead of depending on $server
-            "window.vaadinCursorTracker = {" +
-                "positions: {}, " +
-                "sendPosition: function(pos) {" +
-                    "if (this.serverConnected) {" +
-                        "console.log('Sending cursor position:', pos);" +
-                        "this.element.$server.handleCursorPosition(pos);" +
-                        "return true;" +
-                    "} else {" +
-                        "console.log('Server connection not ready yet');" +
-                        "return false;" +
-                    "}" +
-                "}, " +
-                "init: function(element) {" +
-                    "this.element = element;" +
-                    "this.serverConnected = !!element.$server;" +
-                    "this.setupEventHandlers();" +
-                    "this.startConnectionCheck();" +
-                "}," +
-                "setupEventHandlers: function() {" +
-                    "if (!this.element.inputElement) {" +
-                        "setTimeout(() => this.setupEventHandlers(), 200);" +
-                        "return;" +
-                    "}" +
-                    
-                    "const tracker = this;" +
-                    "const input = this.element.inputElement;" +
-                    
-                    "const sendPos = function() {" +
-                        "tracker.sendPosition(input.selectionStart);" +
-                    "};" +
-                    
-                    "input.addEventListener('click', sendPos);" +
-                    "input.addEventListener('keyup', sendPos);" +
-                    "input.addEventListener('mouseup', sendPos);" +
-                    
-                    "input.addEventListener('keydown', function(e) {" +
-                        "if (e.key.startsWith('Arrow') || e.key === 'Home' || e.key === 'End') {" +
-                            "setTimeout(sendPos, 10);" +
-                        "}" +
-                    "});" +
-                    
-                    "input.addEventListener('focus', sendPos);" +
-                    
-                    "console.log('Event handlers registered');" +
-                "}," +
-                "startConnectionCheck: function() {" +
-                    "const tracker = this;" +
-                    "const checkConnection = function() {" +
-                        "tracker.serverConnected = !!tracker.element.$server;" +
-                        "if (tracker.serverConnected) {" +
-                            "console.log('Server connection established');" +
-                        "} else {" +
-                            "console.log('Waiting for server connection...');" +
-                            "setTimeout(checkConnection, 500);" +
-                        "}" +
-                    "};" +
-                    "checkConnection();" +
-                    
-                    "// Also set up a periodic position sender" +
-                    "setInterval(() => {" +
-                        "if (document.activeElement === tracker.element.inputElement) {" +
-                            "tracker.sendPosition(tracker.element.inputElement.selectionStart);" +
-                        "}" +
-                    "}, 2000);" +
-                "}" +
-            "};" +
-            "window.vaadinCursorTracker.init(this);"
-        );
-
-        // Add this at the end of the method to create a custom cursor for the current user
-        editor.getElement().executeJs(
-            "(() => {" +
-                "const createLocalCursor = () => {" +
-                    "// Remove any existing local cursor" +
-                    "const existingCursor = document.getElementById('local-cursor-indicator');" +
-                    "if (existingCursor) existingCursor.remove();" +
-                    
-                    "// Create local cursor element" +
-                    "const cursor = document.createElement('div');" +
-                    "cursor.id = 'local-cursor-indicator';" +
-                    "cursor.style.position = 'absolute';" +
-                    "cursor.style.width = '6px';" +
-                    "cursor.style.height = '20px';" +
-                    "cursor.style.backgroundColor = $0;" + // User's color
-                    "cursor.style.opacity = '0.7';" +
-                    "cursor.style.pointerEvents = 'none';" +
-                    "cursor.style.zIndex = '9998';" + // Below remote cursors
-                    "cursor.style.boxShadow = '0 0 8px ' + $0;" +
-                    "cursor.style.transition = 'left 0.1s, top 0.1s';" +
-                    
-                    "// Add to DOM" +
-                    "document.body.appendChild(cursor);" +
-                    
-                    "// Add a label with user name (you)" +
-                    "const label = document.createElement('div');" +
-                    "label.textContent = 'You';" +
-                    "label.style.position = 'absolute';" +
-                    "label.style.top = '-20px';" +
-                    "label.style.left = '0';" +
-                    "label.style.backgroundColor = $0;" +
-                    "label.style.color = 'white';" +
-                    "label.style.padding = '2px 5px';" +
-                    "label.style.borderRadius = '3px';" +
-                    "label.style.fontSize = '12px';" +
-                    "label.style.fontWeight = 'bold';" +
-                    "label.style.whiteSpace = 'nowrap';" +
-                    "cursor.appendChild(label);" +
-                    
-                    "return cursor;" +
-                "};" +
-                
-                "// Create the cursor" +
-                "const localCursor = createLocalCursor();" +
-                
-                "// Function to update its position" + 
-                "const updatePosition = () => {" +
-                    "if (!this.inputElement) return;" +
-                    
-                    "const ta = this.inputElement;" +
-                    "const pos = ta.selectionStart;" +
-                    "const rect = ta.getBoundingClientRect();" +
-                    
-                    "const text = ta.value.substring(0, pos);" +
-                    "const lines = text.split('\\n');" +
-                    "const lineIdx = lines.length - 1;" +
-                    "const lineText = lines[lineIdx];" +
-                    "const charWidth = 8;" + 
-                    "const lineHeight = 20;" +
-                    
-                    "const xPos = lineText.length * charWidth + 4;" +
-                    "const yPos = lineIdx * lineHeight + 4;" +
-                    
-                    "localCursor.style.left = (rect.left + xPos) + 'px';" +
-                    "localCursor.style.top = (rect.top + yPos) + 'px';" +
-                "};" +
-                
-                "// Update position on various events" + 
-                "this.inputElement.addEventListener('click', updatePosition);" +
-                "this.inputElement.addEventListener('keyup', updatePosition);" +
-                "this.inputElement.addEventListener('mouseup', updatePosition);" +
-                "this.inputElement.addEventListener('focus', updatePosition);" +
-                
-                "// Initial position update" +
-                "setTimeout(updatePosition, 100);" +
-                
-                "// Periodic updates" +
-                "setInterval(updatePosition, 500);" +
-            "})();",
-            userColor
-        );
-    }
-
-    private void schedulePeriodicCursorUpdates() {
-        getUI().ifPresent(ui -> {
-            ui.setPollInterval(500); // Poll every 500ms to keep UI responsive
-            
-            new Thread(() -> {
-                while (true) {
-                    try {
-                        Thread.sleep(800); // Update every 800ms 
-                        ui.access(() -> {
-                            if (!userRole.equals("viewer") && !sessionCode.isEmpty()) {
-                                // Re-broadcast your cursor position regularly
-                                Broadcaster.broadcastCursor(userId, cursorPosition, userColor, sessionCode);
-                                
-                                // Always re-render cursors to ensure they stay visible
-                                renderRemoteCursors();
-                            }
-                        });
-                    } catch (InterruptedException e) {
-                        break;
-                    }
-                }
-            }).start();
-        });
+        // The module reports this user's caret when it moves, draws the local
+        // marker, and places the remote ones. Attaching again is a no-op.
+        editor.getElement().executeJs("window.remoteCursors.attach(this, $0);", userColor);
     }
 
     private void addCursorStyles() {
@@ -0,0 +1,27 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("editor.Broadcast")
+@Label("Broadcast")
+@Description("An event queued for every listener of a session")
+@Category({ "Collaborative Editor", "Broadcast" })
+@StackTrace(false)
+public class BroadcastEvent extends Event {
+    @Label("Session")
+    public String session;
+
+    @Label("Kind")
+    public String kind;
+
+    @Label("Listeners")
+    public int listeners;
+
+    @Label("Operations")
+    public int operations;
+}
@@ -0,0 +1,27 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Common fields of the CRDT operation events. The JIT drops an event that
+ * no recording has enabled, so creating one costs nothing in production;
+ * fill the fields only if shouldCommit() says it will be recorded.
+ */
+@Category({ "Collaborative Editor", "CRDT" })
+@StackTrace(false)
+public abstract class CrdtEvent extends Event {
+    @Label("Session")
+    public String session;
+
+    @Label("Site")
+    public String site;
+
+    @Label("Operations")
+    public int operations;
+
+    @Label("Nodes")
+    public int nodes;
+}
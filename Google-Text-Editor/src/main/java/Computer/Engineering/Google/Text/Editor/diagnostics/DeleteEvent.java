@@ -0,0 +1,11 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("editor.Delete")
+@Label("CRDT Delete")
+@Description("A local delete")
+public class DeleteEvent extends CrdtEvent {
+}
@@ -0,0 +1,24 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("editor.DocumentState")
+@Label("Catch-up Delta")
+@Description("Operations a user joining a session was missing, sent by a peer")
+@Category({ "Collaborative Editor", "Broadcast" })
+@StackTrace(false)
+public class DocumentStateEvent extends Event {
+    @Label("Session")
+    public String session;
+
+    @Label("Target User")
+    public String targetUser;
+
+    @Label("Operations")
+    public int operations;
+}
@@ -0,0 +1,11 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("editor.Insert")
+@Label("CRDT Insert")
+@Description("Characters inserted locally, one or a run")
+public class InsertEvent extends CrdtEvent {
+}
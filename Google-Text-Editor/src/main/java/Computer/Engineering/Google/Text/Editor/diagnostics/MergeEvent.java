@@ -0,0 +1,11 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("editor.Merge")
+@Label("CRDT Merge")
+@Description("A remote delta merged into a buffer")
+public class MergeEvent extends CrdtEvent {
+}
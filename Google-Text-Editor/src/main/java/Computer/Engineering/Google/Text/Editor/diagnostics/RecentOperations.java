@@ -0,0 +1,75 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last CAPACITY operations of every session, kept in memory so they can
+ * be dumped when something goes wrong (see RecentOperationsEndpoint).
+ *
+ * Each session has a ring that writers claim slots of with one atomic
+ * increment and fill with an immutable entry, so recording never blocks.
+ * A dump keeps the entries whose sequence matches their slot and skips
+ * slots that are mid-overwrite.
+ */
+public final class RecentOperations {
+    static final int CAPACITY = 1024;
+
+    private static final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+    private RecentOperations() {
+    }
+
+    public static void record(String sessionCode, String kind, String origin, int operations) {
+        if (sessionCode == null || sessionCode.isEmpty()) {
+            return;
+        }
+        rings.computeIfAbsent(sessionCode, code -> new Ring()).add(kind, origin, operations);
+    }
+
+    /**
+     * Returns the session's recent operations, oldest first
+     */
+    public static List<RecordedOperation> dump(String sessionCode) {
+        Ring ring = rings.get(sessionCode);
+        return ring == null ? List.of() : ring.snapshot();
+    }
+
+    /**
+     * Forgets a session, once nobody edits it any more
+     */
+    public static void remove(String sessionCode) {
+        rings.remove(sessionCode);
+    }
+
+    private static final class Ring {
+        private final AtomicReferenceArray<RecordedOperation> slots = new AtomicReferenceArray<>(CAPACITY);
+        private final AtomicLong next = new AtomicLong();
+
+        void add(String kind, String origin, int operations) {
+            long sequence = next.getAndIncrement();
+            slots.set(slot(sequence),
+                    new RecordedOperation(sequence, System.currentTimeMillis(), kind, origin, operations));
+        }
+
+        List<RecordedOperation> snapshot() {
+            long end = next.get();
+            List<RecordedOperation> operations = new ArrayList<>(CAPACITY);
+            for (long sequence = Math.max(0, end - CAPACITY); sequence < end; sequence++) {
+                RecordedOperation operation = slots.get(slot(sequence));
+                if (operation != null && operation.getSequence() == sequence) {
+                    operations.add(operation);
+                }
+            }
+            return operations;
+        }
+
+        private static int slot(long sequence) {
+            return (int) (sequence & (CAPACITY - 1));
+        }
+    }
+}
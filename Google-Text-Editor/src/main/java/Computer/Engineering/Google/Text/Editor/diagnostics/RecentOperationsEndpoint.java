@@ -0,0 +1,24 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * /actuator/recentoperations/{session} dumps a session's recent operations.
+ * Session codes are what lets users into a session, so there is no listing
+ * of them, and the endpoint is not exposed over HTTP unless
+ * management.endpoints.web.exposure.include names it.
+ */
+@Component
+@Endpoint(id = "recentoperations")
+public class RecentOperationsEndpoint {
+
+    @ReadOperation
+    public List<RecordedOperation> operations(@Selector String session) {
+        return RecentOperations.dump(session);
+    }
+}
@@ -0,0 +1,47 @@
+package Computer.Engineering.Google.Text.Editor.diagnostics;
+
+import java.time.Instant;
+
+/**
+ * One entry of a session's recent operations
+ */
+public class RecordedOperation {
+    private final long sequence;
+    private final long timestamp;
+    private final String kind;
+    private final String origin;
+    private final int operations;
+
+    RecordedOperation(long sequence, long timestamp, String kind, String origin, int operations) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.kind = kind;
+        this.origin = origin;
+        this.operations = operations;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Instant getTimestamp() {
+        return Instant.ofEpochMilli(timestamp);
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public int getOperations() {
+        return operations;
+    }
+
+    @Override
+    public String toString() {
+        return getTimestamp() + " #" + sequence + " " + kind + " from " + origin + ": " + operations + " operations";
+    }
+}
@@ -0,0 +1,127 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.Arrays;
+
+/**
+ * Finds the block holding a character ID. The blocks of one site cover
+ * disjoint clock ranges, so every site keeps its blocks sorted by first clock
+ * and a lookup is a binary search. Site indexes are global to the JVM and
+ * keep growing as editors come and go, so each index holds only the sites
+ * its buffer has seen, keyed by site index.
+ *
+ * New blocks mostly carry the highest clocks of their site and go at the
+ * end; a split puts the tail right after the block it came from.
+ */
+class BlockIndex {
+    private static final class SiteBlocks {
+        CrdtBlock[] blocks = new CrdtBlock[4];
+        int count;
+    }
+
+    private final LongMap<SiteBlocks> sites = new LongMap<>();
+    // Runs of operations mostly come from one site
+    private int lastSiteIndex = -1;
+    private SiteBlocks lastSite;
+    private int blockCount;
+
+    int size() {
+        return blockCount;
+    }
+
+    /**
+     * Block holding the character, or null if it is not known
+     */
+    CrdtBlock find(long id) {
+        SiteBlocks site = site(CrdtIds.siteIndex(id), false);
+        if (site == null) {
+            return null;
+        }
+        int i = floor(site, CrdtIds.clock(id));
+        if (i < 0) {
+            return null;
+        }
+        CrdtBlock block = site.blocks[i];
+        return id <= block.lastId() ? block : null;
+    }
+
+    /**
+     * First block of the ID's site that ends at or after it, null if there is
+     * none. Tells how much of an incoming run is new without a lookup per
+     * character.
+     */
+    CrdtBlock ceiling(long id) {
+        SiteBlocks site = site(CrdtIds.siteIndex(id), false);
+        if (site == null) {
+            return null;
+        }
+        int i = floor(site, CrdtIds.clock(id));
+        if (i >= 0 && id <= site.blocks[i].lastId()) {
+            return site.blocks[i];
+        }
+        return i + 1 < site.count ? site.blocks[i + 1] : null;
+    }
+
+    void add(CrdtBlock block) {
+        SiteBlocks site = site(block.siteIndex(), true);
+        int at = floor(site, block.firstClock()) + 1;
+        if (site.count == site.blocks.length) {
+            site.blocks = Arrays.copyOf(site.blocks, site.count * 2);
+        }
+        System.arraycopy(site.blocks, at, site.blocks, at + 1, site.count - at);
+        site.blocks[at] = block;
+        site.count++;
+        blockCount++;
+    }
+
+    void remove(CrdtBlock block) {
+        SiteBlocks site = site(block.siteIndex(), false);
+        int at = floor(site, block.firstClock());
+        System.arraycopy(site.blocks, at + 1, site.blocks, at, site.count - at - 1);
+        site.blocks[--site.count] = null;
+        blockCount--;
+    }
+
+    void clear() {
+        sites.clear();
+        lastSiteIndex = -1;
+        lastSite = null;
+        blockCount = 0;
+    }
+
+    private SiteBlocks site(int siteIndex, boolean create) {
+        if (siteIndex == lastSiteIndex) {
+            return lastSite;
+        }
+        SiteBlocks site = sites.get(siteIndex);
+        if (site == null) {
+            if (!create) {
+                return null;
+            }
+            site = new SiteBlocks();
+            sites.put(siteIndex, site);
+        }
+        lastSiteIndex = siteIndex;
+        lastSite = site;
+        return site;
+    }
+
+    // Index of the last block starting at or before clock, -1 if none
+    private static int floor(SiteBlocks site, int clock) {
+        int count = site.count;
+        // Lookups cluster on the newest text
+        if (count > 0 && site.blocks[count - 1].firstClock() <= clock) {
+            return count - 1;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (site.blocks[mid].firstClock() <= clock) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+}
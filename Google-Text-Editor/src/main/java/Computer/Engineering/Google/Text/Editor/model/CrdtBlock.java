@@ -0,0 +1,189 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.Arrays;
+
+/**
+ * A run of characters in a CrdtBuffer's tree: one site's consecutive clocks,
+ * each character the first child of the one before it. Such a chain is what
+ * typing and pasting produce, and it sits in the document as one piece, so
+ * it is stored as one node with a char array instead of a node per
+ * character.
+ *
+ * A block is visible or deleted as a whole, and only its last character has
+ * children of its own. The buffer splits a block when an insert lands after
+ * a character in its middle or a delete hits part of it, and joins deleted
+ * neighbours back together.
+ *
+ * Tree and position index links are maintained by the owning CrdtBuffer, so
+ * a block only ever belongs to one buffer.
+ */
+final class CrdtBlock {
+    /**
+     * Rough heap cost of a block without its characters: object header and
+     * fields, its array headers and its slot in the BlockIndex. Used to report
+     * what tombstone collection frees.
+     */
+    static final int ESTIMATED_BYTES = 104;
+    /**
+     * Rough heap cost of one character of a block, a char and a delete dot
+     */
+    static final int ESTIMATED_BYTES_PER_CHAR = 10;
+
+    final long firstId;
+    final long parentId;
+    final int counter;
+    char[] chars;
+    int length;
+    // One dot per character once the block is deleted, null while visible.
+    // A dot is 0 when the delete came without one.
+    long[] deleteDots;
+
+    // Children of the last character, in sibling order
+    CrdtBlock firstChild;
+    CrdtBlock nextSibling;
+    // Position index bookkeeping
+    CrdtBlock left;
+    CrdtBlock right;
+    CrdtBlock up;
+    int priority;
+    int weight;
+    int liveWeight;
+
+    CrdtBlock(long firstId, long parentId, int counter, char[] chars, int length) {
+        this.firstId = firstId;
+        this.parentId = parentId;
+        this.counter = counter;
+        this.chars = chars;
+        this.length = length;
+    }
+
+    static CrdtBlock of(long firstId, long parentId, int counter, CharSequence text, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = text.charAt(i);
+        }
+        return new CrdtBlock(firstId, parentId, counter, chars, chars.length);
+    }
+
+    long lastId() {
+        return firstId + length - 1;
+    }
+
+    int siteIndex() {
+        return CrdtIds.siteIndex(firstId);
+    }
+
+    int firstClock() {
+        return CrdtIds.clock(firstId);
+    }
+
+    boolean isDeleted() {
+        return deleteDots != null;
+    }
+
+    int liveLength() {
+        return deleteDots == null ? length : 0;
+    }
+
+    /**
+     * Offset of a character ID inside this block. The ID must belong to it.
+     */
+    int offsetOf(long id) {
+        return (int) (id - firstId);
+    }
+
+    /**
+     * Whether characters with these fields continue this block: the next
+     * clocks of the same site, chained to its last character, and in the same
+     * state. The caller checks that nothing else is under the last character.
+     */
+    boolean canExtendWith(long nextFirstId, long nextParentId, int nextCounter, boolean nextDeleted) {
+        return firstId != CrdtIds.ROOT
+                && nextParentId == lastId()
+                && nextFirstId == lastId() + 1
+                && CrdtIds.siteIndex(nextFirstId) == siteIndex()
+                && nextCounter == 0
+                && nextDeleted == isDeleted();
+    }
+
+    /**
+     * Appends text[start, end), with their delete dots from dots if this
+     * block is deleted
+     */
+    void append(CharSequence text, long[] dots, int start, int end) {
+        reserve(end - start, dots, start);
+        for (int i = start; i < end; i++) {
+            chars[length++] = text.charAt(i);
+        }
+    }
+
+    /**
+     * Appends all characters of next, which must be chained to this block
+     */
+    void append(CrdtBlock next) {
+        reserve(next.length, next.deleteDots, 0);
+        System.arraycopy(next.chars, 0, chars, length, next.length);
+        length += next.length;
+    }
+
+    private void reserve(int count, long[] dots, int dotsStart) {
+        if (length + count > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(length + count, chars.length + (chars.length >> 1) + 1));
+        }
+        if (deleteDots != null) {
+            if (length + count > deleteDots.length) {
+                deleteDots = Arrays.copyOf(deleteDots, chars.length);
+            }
+            System.arraycopy(dots, dotsStart, deleteDots, length, count);
+        }
+    }
+
+    /**
+     * Moves the characters from offset on into a new block, which takes over
+     * this block's children and becomes its only child. Index links are left
+     * to the caller.
+     */
+    CrdtBlock splitAt(int offset) {
+        CrdtBlock tail = new CrdtBlock(firstId + offset, firstId + offset - 1, 0,
+                Arrays.copyOfRange(chars, offset, length), length - offset);
+        if (deleteDots != null) {
+            tail.deleteDots = Arrays.copyOfRange(deleteDots, offset, length);
+            deleteDots = Arrays.copyOf(deleteDots, offset);
+        }
+        tail.firstChild = firstChild;
+        firstChild = tail;
+        length = offset;
+        // Tails of long blocks are split off often while typing in the middle
+        // of a paste, so the head gives back the space it no longer needs
+        if (chars.length > 2 * offset + 16) {
+            chars = Arrays.copyOf(chars, offset);
+        }
+        return tail;
+    }
+
+    /**
+     * Sibling order under the same parent: higher counter first, then site
+     * name, then clock. Site indexes depend on interning order, so only the
+     * names are comparable across replicas.
+     */
+    static int compareSiblings(int counter, long firstId, int otherCounter, long otherFirstId) {
+        if (counter != otherCounter) {
+            return Integer.compare(otherCounter, counter);
+        }
+        int site = CrdtIds.siteIndex(firstId);
+        int otherSite = CrdtIds.siteIndex(otherFirstId);
+        if (site != otherSite) {
+            return CrdtIds.siteName(site).compareTo(CrdtIds.siteName(otherSite));
+        }
+        return Integer.compare(CrdtIds.clock(firstId), CrdtIds.clock(otherFirstId));
+    }
+
+    long estimatedBytes() {
+        return ESTIMATED_BYTES + (long) length * ESTIMATED_BYTES_PER_CHAR;
+    }
+
+    @Override
+    public String toString() {
+        return (deleteDots != null ? "⌫" : "") + CrdtIds.toString(firstId) + "+" + length;
+    }
+}
@@ -1,22 +1,79 @@
 package Computer.Engineering.Google.Text.Editor.model;
 
+import java.nio.CharBuffer;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import Computer.Engineering.Google.Text.Editor.diagnostics.CrdtEvent;
+import Computer.Engineering.Google.Text.Editor.diagnostics.DeleteEvent;
+import Computer.Engineering.Google.Text.Editor.diagnostics.InsertEvent;
+import Computer.Engineering.Google.Text.Editor.diagnostics.MergeEvent;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
 public class CrdtBuffer {
-    private List<CrdtNode> nodes;
+    // Shared by every buffer; Spring Boot adds its registries to the global
+    // one. Ignored operations, like an insert under an unknown parent, are
+    // not timed.
+    private static final Timer INSERT_CHAR_TIMER = editTimer("editor.crdt.insert", "char");
+    private static final Timer INSERT_RUN_TIMER = editTimer("editor.crdt.insert", "run");
+    private static final Timer DELETE_TIMER = editTimer("editor.crdt.delete", null);
+    private static final Timer MERGE_TIMER = editTimer("editor.crdt.merge", null);
+    private static final Timer DOCUMENT_TIMER = editTimer("editor.crdt.document", null);
+
     private String siteId;
+    private final int siteIndex;
     private int clock;
-    private Set<String> deletedSet;
-    private List<CrdtNode> deletedNodes = new ArrayList<>();
+    // Characters are stored in blocks, see CrdtBlock. The root is a block of
+    // one character that is never part of the document.
+    private final CrdtBlock root = new CrdtBlock(CrdtIds.ROOT, CrdtIds.ROOT, 0, new char[] { '\0' }, 1);
+    private final BlockIndex blocks = new BlockIndex();
+    private final LongMap<List<CrdtRun>> waitingForParent = new LongMap<>();
+    private final PositionIndex index = new PositionIndex();
+    private final DocumentText text = new DocumentText();
+    // Characters, tombstones included
+    private int nodeCount = 0;
+    private int tombstoneCount = 0;
+    // Text changes of the merge in progress, when the caller asked for them
+    private List<TextPatch> patches;
+    // Highest clock merged from each site, inserts and deletes alike
+    private final VersionVector version = new VersionVector();
+    // Deletes that arrived before the node they delete, by node ID
+    private final LongMap<Long> earlyDeletes = new LongMap<>();
+    // Everything the stable vectors of past collections covered. A tombstone
+    // in it may be gone, so operations it covers that are not here were
+    // purged, and a resent copy of them is dropped.
+    private final VersionVector collected = new VersionVector();
+    // Local operations not yet handed out by takeLocalChanges(). Typing
+    // extends the last run as long as each character follows the one before.
+    private final List<CrdtRun> localRuns = new ArrayList<>();
+    private final StringBuilder localRunText = new StringBuilder();
+    private long localRunFirstId;
+    private long localRunParentId;
+    private int localRunCounter;
+    private long[] localDeletes = new long[16];
+    private long[] localDeleteDots = new long[16];
+    private int localDeleteCount = 0;
+    // Session the buffer belongs to, only for diagnostics
+    private volatile String sessionCode;
     Logger logger = LoggerFactory.getLogger(CrdtBuffer.class);
 
     public CrdtBuffer(String siteId) {
+        this(siteId, 0);
+    }
+
+    /**
+     * A replica of a site whose earlier replica used clocks up to the given
+     * one, see SitePool
+     */
+    CrdtBuffer(String siteId, int clock) {
         this.siteId = siteId;
-        this.clock = 0;
-        this.nodes = new ArrayList<>();
-        this.deletedSet = new HashSet<>();
+        this.siteIndex = CrdtIds.intern(siteId);
+        this.clock = clock;
+        this.blocks.add(root);
     }
 
     // basic case
@@ -27,253 +84,891 @@ public class CrdtBuffer {
      */
 
     public void insert(char charValue, String parentId) {
-        clock++;
-        int counter = 0;
+        insertAndReturnId(charValue, CrdtIds.parse(parentId));
+    }
 
-        // Track existing counters for the parentId
-        Set<Integer> existingCounters = new HashSet<>();
-        for (CrdtNode node : nodes) {
-            if (node.getParentId().equals(parentId)) {
-                existingCounters.add(node.getCounter());
+    /**
+     * Applies the operations of a remote delta. A run costs one lookup and one
+     * index update however long it is, and a delete an ID lookup plus an index
+     * update, so the cost depends on the delta, not the document.
+     *
+     * @return the number of operations that changed this buffer, counting
+     *         each inserted character
+     */
+    public int merge(CrdtDelta delta) {
+        MergeEvent event = new MergeEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int applied = 0;
+        for (CrdtRun run : delta.getRuns()) {
+            applied += addRemote(run);
+        }
+        long[] deletes = delta.getDeletes();
+        long[] deleteDots = delta.getDeleteDots();
+        for (int i = 0; i < deletes.length; i++) {
+            CrdtBlock local = blocks.find(deletes[i]);
+            if (local == null) {
+                // Either the tombstone was purged, or the insert is still on
+                // its way from another replica
+                if (!collected.covers(deletes[i])) {
+                    earlyDeletes.put(deletes[i], deleteDots[i]);
+                }
+            } else if (local != root && markDeleted(local, deletes[i], deleteDots[i])) {
+                applied++;
             }
         }
+        MERGE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        commit(event, applied);
+        logger.debug("Merged {}, {} operations applied", delta, applied);
+        return applied;
+    }
 
-        // Ensure uniqueness by finding the smallest available counter
-        while (existingCounters.contains(counter)) {
-            counter++;
+    /**
+     * Merges a remote delta like merge(CrdtDelta), and returns what it did to
+     * the visible text as positional patches. Neighbouring changes are folded
+     * together, so a typed or pasted run is one patch. Nothing visible changed
+     * if the list is empty.
+     */
+    public List<TextPatch> mergeWithPatches(CrdtDelta delta) {
+        patches = new ArrayList<>();
+        try {
+            merge(delta);
+            return patches;
+        } finally {
+            patches = null;
         }
+    }
 
-        CrdtNode newNode = new CrdtNode(siteId, clock, counter, parentId, charValue);
-        nodes.add(newNode);
+    /**
+     * Returns the operations made locally since the previous call, and resets
+     * the pending list. This is what a local edit should broadcast.
+     */
+    public CrdtDelta takeLocalChanges() {
+        closeLocalRun();
+        CrdtDelta delta = new CrdtDelta(siteId, localRuns, Arrays.copyOf(localDeletes, localDeleteCount),
+                Arrays.copyOf(localDeleteDots, localDeleteCount));
+        localRuns.clear();
+        localDeleteCount = 0;
+        return delta;
+    }
 
-        Collections.sort(nodes); // Maintain order
+    /**
+     * Returns the whole buffer, tombstones included, as one delta. Merging it
+     * into an empty buffer reproduces this buffer with the same node IDs.
+     * Each block becomes one run, in document order, so every run comes after
+     * its parent's. Runs and deletes still waiting for their node come last,
+     * so the other buffer waits for the same operations this one does.
+     */
+    public CrdtDelta snapshot() {
+        List<CrdtRun> runs = new ArrayList<>(blocks.size());
+        for (CrdtBlock block = index.first(); block != null; block = index.successor(block)) {
+            runs.add(new CrdtRun(block.firstId, block.parentId, block.counter, new String(block.chars, 0, block.length),
+                    block.isDeleted() ? Arrays.copyOf(block.deleteDots, block.length) : null));
+        }
+        waitingForParent.forEachValue(runs::addAll);
+        DeleteList deletes = new DeleteList();
+        earlyDeletes.forEach(deletes::add);
+        return CrdtDelta.adopt(siteId, runs, deletes.ids(), deletes.dots());
+    }
 
-        logger.debug("Inserted node: " + newNode);
+    /**
+     * Returns what a replica that has merged up to known is missing, for a
+     * replica catching up on join: the characters it has not seen, as runs,
+     * and deletes of characters it has seen but not yet as deleted. Each
+     * site's operations arrive in clock order, so a character is new to the
+     * replica exactly when its clock is above the replica's entry for its
+     * site, which makes the unseen part of a block a suffix of it. Merging
+     * the result gives the replica what merging snapshot() would, at the cost
+     * of the difference.
+     *
+     * Runs come in document order, so each comes after its parent's, and
+     * resent operations are skipped on merge, so a vector that is behind
+     * only costs extra bytes. Operations this buffer is still waiting to
+     * place are passed on the same way; getVersionVector() keeps a replica's
+     * entries below the ones it is waiting for, so they are not skipped.
+     */
+    public CrdtDelta changesSince(VersionVector known) {
+        List<CrdtRun> runs = new ArrayList<>();
+        DeleteList deletes = new DeleteList();
+        for (CrdtBlock block = index.first(); block != null; block = index.successor(block)) {
+            addChanges(known, block.firstId, block.parentId, block.counter, block.chars, block.length,
+                    block.deleteDots, runs, deletes);
+        }
+        waitingForParent.forEachValue(waiting -> {
+            for (CrdtRun run : waiting) {
+                addChanges(known, run.getFirstId(), run.getParentId(), run.getCounter(), run.getText().toCharArray(),
+                        run.getLength(), run.getDeleteDots(), runs, deletes);
+            }
+        });
+        earlyDeletes.forEach((nodeId, dot) -> {
+            if (!known.covers(dot)) {
+                deletes.add(nodeId, dot);
+            }
+        });
+        CrdtDelta delta = CrdtDelta.adopt(siteId, runs, deletes.ids(), deletes.dots());
+        logger.debug("Changes since {}: {}", known, delta);
+        return delta;
+    }
+
+    // Adds the part of a run of characters that known does not cover, and the
+    // deletes it has not seen of the part it does
+    private static void addChanges(VersionVector known, long firstId, long parentId, int counter, char[] chars,
+            int length, long[] deleteDots, List<CrdtRun> runs, DeleteList deletes) {
+        int seen = Math.max(0, Math.min(length, known.get(CrdtIds.siteIndex(firstId)) - CrdtIds.clock(firstId) + 1));
+        if (deleteDots != null) {
+            for (int i = 0; i < seen; i++) {
+                if (!known.covers(deleteDots[i])) {
+                    deletes.add(firstId + i, deleteDots[i]);
+                }
+            }
+        }
+        if (seen < length) {
+            long unseenId = firstId + seen;
+            runs.add(new CrdtRun(unseenId, seen == 0 ? parentId : unseenId - 1, seen == 0 ? counter : 0,
+                    new String(chars, seen, length - seen),
+                    deleteDots != null ? Arrays.copyOfRange(deleteDots, seen, length) : null));
+        }
     }
 
-    public void merge(List<CrdtNode> incomingNodes, List<CrdtNode> incomingDeleted) {
-        Map<String, CrdtNode> nodeMap = new HashMap<>();
+    // Node IDs and dots of deletes being gathered for a delta
+    private static final class DeleteList {
+        private long[] ids = new long[16];
+        private long[] dots = new long[16];
+        private int count;
 
-        for (CrdtNode node : nodes) {
-            nodeMap.put(node.getUniqueId(), node);
+        void add(long nodeId, long dot) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                dots = Arrays.copyOf(dots, count * 2);
+            }
+            ids[count] = nodeId;
+            dots[count] = dot;
+            count++;
         }
 
-        for (CrdtNode incoming : incomingNodes) {
-            String id = incoming.getUniqueId();
+        long[] ids() {
+            return Arrays.copyOf(ids, count);
+        }
 
-            if (!nodeMap.containsKey(id)) {
-                nodes.add(incoming);
-            } else {
-                CrdtNode local = nodeMap.get(id);
-                if (incoming.isDeleted()) {
-                    local.markDeleted(); // Correctly mark deletion
-                }
+        long[] dots() {
+            return Arrays.copyOf(dots, count);
+        }
+    }
+
+    /**
+     * Returns a copy of this buffer's version vector, for reporting to the
+     * session's CausalStability registry.
+     *
+     * Runs waiting for their parent and deletes waiting for their node are
+     * not merged yet, while later operations of their sites may be. Their
+     * sites' entries are lowered to just before them, so the vector never
+     * claims an operation this buffer does not have and the stable vector
+     * never covers one.
+     */
+    public VersionVector getVersionVector() {
+        VersionVector merged = new VersionVector(version);
+        waitingForParent.forEachValue(runs -> {
+            for (CrdtRun run : runs) {
+                merged.retainBefore(run.getFirstId());
             }
+        });
+        earlyDeletes.forEachValue(merged::retainBefore);
+        return merged;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the number of blocks holding the characters, see CrdtBlock
+     */
+    public int getBlockCount() {
+        return blocks.size() - 1;
+    }
+
+    public int getTombstoneCount() {
+        return tombstoneCount;
+    }
+
+    /**
+     * Purges tombstones whose delete every replica of the session has merged.
+     *
+     * A tombstone is only removed once it is a leaf, since its children are
+     * positioned relative to it; purging a child can make its parent a leaf,
+     * so chains of deleted text go in one pass. Besides the delete being
+     * stable, this buffer must have merged every operation the other replicas
+     * had made when they last reported. Otherwise an insert made under the
+     * node before its author saw the delete could still arrive and find its
+     * parent gone. Both checks rely on each replica's operations arriving in
+     * the order they were made, which Broadcaster guarantees.
+     *
+     * The pass walks the blocks backwards in document order, so a block's
+     * children are done before the block itself, and trims deleted blocks
+     * from their last character.
+     *
+     * The stable vector is kept afterwards: a resent insert or delete of a
+     * character it covers that is no longer here was purged, and is dropped
+     * instead of being added again or waiting for a node that is gone.
+     *
+     * @param stable pointwise minimum of the session's version vectors
+     * @param reportedOwnClocks each replica's last reported clock for its own site
+     */
+    public GarbageCollectionStats collectGarbage(VersionVector stable, VersionVector reportedOwnClocks) {
+        VersionVector merged = getVersionVector();
+        if (!merged.dominates(reportedOwnClocks)) {
+            logger.debug("Replicas are ahead of {}, tombstone collection skipped", merged);
+            return new GarbageCollectionStats(0, tombstoneCount, 0);
         }
-        for (CrdtNode deletedNode : incomingDeleted) {
-            if (nodeMap.containsKey(deletedNode.getUniqueId())) {
-                nodeMap.get(deletedNode.getUniqueId()).markDeleted();
+        collected.retainMax(stable);
+        int purged = 0;
+        long reclaimed = 0;
+        CrdtBlock block = index.last();
+        while (block != null) {
+            CrdtBlock previous = index.predecessor(block);
+            if (block.isDeleted() && block.firstChild == null) {
+                int keep = block.length;
+                while (keep > 0 && isCollectable(block.deleteDots[keep - 1], stable)) {
+                    keep--;
+                }
+                int removed = block.length - keep;
+                if (keep == 0) {
+                    reclaimed += block.estimatedBytes();
+                    unlink(blocks.find(block.parentId), block);
+                    index.remove(block);
+                    blocks.remove(block);
+                } else if (removed > 0) {
+                    reclaimed += (long) removed * CrdtBlock.ESTIMATED_BYTES_PER_CHAR;
+                    block.length = keep;
+                    index.update(block);
+                }
+                purged += removed;
             }
+            block = previous;
         }
-        System.out.println("Merging incoming nodes: " + incomingNodes.size());
-        System.out.println("Before merge: " + nodes.size() + " local nodes");
+        nodeCount -= purged;
+        tombstoneCount -= purged;
+        GarbageCollectionStats stats = new GarbageCollectionStats(purged, tombstoneCount, reclaimed);
+        logger.debug("Collected tombstones: {}", stats);
+        return stats;
+    }
 
-        Collections.sort(nodes);
+    private static boolean isCollectable(long deleteDot, VersionVector stable) {
+        return deleteDot != CrdtIds.ROOT && stable.covers(deleteDot);
     }
 
-    public String getDocument() {
-        // Build the tree structure
-        Map<String, List<CrdtNode>> childrenMap = new HashMap<>();
-        for (CrdtNode node : nodes) {
-            if (!node.isDeleted()) {
-                childrenMap.computeIfAbsent(node.getParentId(), k -> new ArrayList<>()).add(node);
+    private static void unlink(CrdtBlock parent, CrdtBlock block) {
+        if (parent.firstChild == block) {
+            parent.firstChild = block.nextSibling;
+        } else {
+            CrdtBlock prev = parent.firstChild;
+            while (prev.nextSibling != block) {
+                prev = prev.nextSibling;
             }
+            prev.nextSibling = block.nextSibling;
         }
+        block.nextSibling = null;
+    }
 
-        // Sort children using the natural ordering defined in CrdtNode.compareTo
-        for (List<CrdtNode> children : childrenMap.values()) {
-            Collections.sort(children); // This will use the compareTo method
-        }
+    /**
+     * Returns the current text. The text is maintained incrementally by every
+     * insert, delete and merge, so this is a cached read rather than a rebuild.
+     */
+    public String getDocument() {
+        long start = System.nanoTime();
+        String document = text.toString();
+        DOCUMENT_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return document;
+    }
 
-        // Debug visualization (keep this for debugging)
-        System.out.println("\n===== DOCUMENT TREE STRUCTURE =====");
-        System.out.println("Root node: 0");
-        buildDocumentWithVisualization("0", childrenMap, new StringBuilder(), "", 0);
-        System.out.println("==================================\n");
+    /**
+     * Returns the visible text between start (inclusive) and end (exclusive)
+     */
+    public String getText(int start, int end) {
+        return text.substring(start, end);
+    }
+
+    // Helper method to find a node's ID by its position
+    public String getNodeIdAtPosition(int position) {
+        return CrdtIds.toString(getNodeAt(position));
+    }
 
-        // Build document with direct traversal
-        StringBuilder doc = new StringBuilder();
-        buildDocumentDirect("0", childrenMap, doc);
-        return doc.toString();
+    /**
+     * Returns the ID of the visible node at a position, or the root ID if the
+     * position is out of bounds
+     */
+    public long getNodeAt(int position) {
+        return index.liveIdAt(position); // Root if out of bounds
     }
 
-    // Direct document building with proper traversal
-    private void buildDocumentDirect(String nodeId, Map<String, List<CrdtNode>> childrenMap, StringBuilder sb) {
-        List<CrdtNode> children = childrenMap.get(nodeId);
-        if (children == null)
-            return;
+    /**
+     * Returns the position of a visible node in the document, or -1 if the node
+     * is unknown or deleted
+     */
+    public int getPositionOf(String nodeId) {
+        return getPositionOf(CrdtIds.parse(nodeId));
+    }
 
-        for (CrdtNode child : children) {
-            sb.append(child.getCharValue());
-            buildDocumentDirect(child.getUniqueId(), childrenMap, sb);
+    public int getPositionOf(long nodeId) {
+        CrdtBlock block = blocks.find(nodeId);
+        if (block == null || block == root || block.isDeleted()) {
+            return -1;
         }
+        return index.liveRank(block) + block.offsetOf(nodeId);
     }
 
-    // Enhanced buildDocument method with tree visualization
-    private void buildDocumentWithVisualization(String nodeId, Map<String, List<CrdtNode>> childrenMap,
-            StringBuilder document, String prefix, int depth) {
-        List<CrdtNode> children = childrenMap.get(nodeId);
-        if (children == null)
-            return;
+    /**
+     * Returns the number of visible characters in the document
+     */
+    public int getVisibleLength() {
+        return text.length();
+    }
 
-        for (int i = 0; i < children.size(); i++) {
-            CrdtNode node = children.get(i);
-            boolean isLastChild = (i == children.size() - 1);
+    public void delete(String siteId, int clock) {
+        delete(CrdtIds.of(CrdtIds.intern(siteId), clock));
+    }
 
-            // Add the character to the document
-            document.append(node.getCharValue());
+    /**
+     * Deletes the node with the given unique ID ("siteId-clock")
+     */
+    public void delete(String nodeId) {
+        delete(CrdtIds.parse(nodeId));
+    }
 
-            // Print tree visualization
-            String childPrefix = prefix + (isLastChild ? "   " : "│  ");
-            String nodeConnector = isLastChild ? "└─ " : "├─ ";
-            System.out.println(prefix + nodeConnector + "'" + node.getCharValue() + "' (ID: " +
-                    node.getUniqueId() + ", Parent: " + node.getParentId() +
-                    ", Counter: " + node.getCounter() + ", Depth: " + depth + ")");
+    public void delete(long nodeId) {
+        DeleteEvent event = new DeleteEvent();
+        event.begin();
+        long start = System.nanoTime();
+        CrdtBlock block = blocks.find(nodeId);
+
+        if (block != null && block != root && !block.isDeleted()) {
+            int offset = block.offsetOf(nodeId);
+            deleteLocal(block, offset, offset + 1);
+            DELETE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            commit(event, 1);
+            logger.debug("Deleted node: {}", CrdtIds.toString(nodeId));
+        }
+    }
 
-            // Process children of this node
-            buildDocumentWithVisualization(node.getUniqueId(), childrenMap, document, childPrefix, depth + 1);
+    /**
+     * Deletes count visible characters from position on, as deleting a
+     * selection does. Each block the range covers is split at most twice and
+     * becomes a tombstone in one step, so the cost follows the number of
+     * blocks in the range, not a lookup and an index update per character.
+     *
+     * @return the number of characters deleted, less than count if the
+     *         document ends first
+     */
+    public int deleteRange(int position, int count) {
+        DeleteEvent event = new DeleteEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int deleted = 0;
+        while (deleted < count) {
+            // The characters already deleted have left the visible text, so
+            // the next one is at the same position
+            long nodeId = index.liveIdAt(position);
+            if (nodeId == CrdtIds.ROOT) {
+                break;
+            }
+            CrdtBlock block = blocks.find(nodeId);
+            int offset = block.offsetOf(nodeId);
+            int length = Math.min(count - deleted, block.length - offset);
+            deleteLocal(block, offset, offset + length);
+            deleted += length;
         }
+        if (deleted > 0) {
+            DELETE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            commit(event, deleted);
+            logger.debug("Deleted {} characters at {}", deleted, position);
+        }
+        return deleted;
     }
 
-    // Helper method to find a node's ID by its position
-    public String getNodeIdAtPosition(int position) {
-        // Build tree structure like getDocument() does
-        Map<String, List<CrdtNode>> childrenMap = new HashMap<>();
-        for (CrdtNode node : nodes) {
-            if (!node.isDeleted()) {
-                childrenMap.computeIfAbsent(node.getParentId(), k -> new ArrayList<>()).add(node);
+    /**
+     * Deletes the visible nodes among count consecutive IDs of one site from
+     * firstId on, the counterpart of insertRun(). IDs that are unknown or
+     * already deleted are skipped.
+     *
+     * @return the number of characters deleted
+     */
+    public int deleteRun(long firstId, int count) {
+        DeleteEvent event = new DeleteEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long lastId = firstId + count - 1;
+        int deleted = 0;
+        for (long nodeId = firstId; nodeId <= lastId;) {
+            CrdtBlock block = blocks.ceiling(nodeId);
+            if (block == null || block.firstId > lastId) {
+                break;
             }
+            long from = Math.max(nodeId, block.firstId);
+            long to = Math.min(lastId, block.lastId());
+            nodeId = to + 1;
+            if (block != root && !block.isDeleted()) {
+                deleteLocal(block, block.offsetOf(from), block.offsetOf(to) + 1);
+                deleted += (int) (to - from + 1);
+            }
+        }
+        if (deleted > 0) {
+            DELETE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            commit(event, deleted);
+            logger.debug("Deleted {} of {} nodes from {}", deleted, count, CrdtIds.toString(firstId));
         }
+        return deleted;
+    }
 
-        List<String> nodeIds = new ArrayList<>();
-        buildNodeIdList("0", childrenMap, nodeIds);
+    /**
+     * Turns characters [from, to) of a visible block into tombstones as local
+     * operations.
+     *
+     * The nodes stay in the tree, so their children keep their place in the
+     * document without being reparented. Each delete takes a clock tick of
+     * its own so replicas can tell when everyone has seen it.
+     */
+    private void deleteLocal(CrdtBlock block, int from, int to) {
+        int count = to - from;
+        if (localDeleteCount + count > localDeletes.length) {
+            int capacity = Math.max(localDeletes.length * 2, localDeleteCount + count);
+            localDeletes = Arrays.copyOf(localDeletes, capacity);
+            localDeleteDots = Arrays.copyOf(localDeleteDots, capacity);
+        }
+        long[] dots = new long[count];
+        for (int i = 0; i < count; i++) {
+            clock++;
+            dots[i] = CrdtIds.of(siteIndex, clock);
+            localDeletes[localDeleteCount] = block.firstId + from + i;
+            localDeleteDots[localDeleteCount] = dots[i];
+            localDeleteCount++;
+        }
+        version.observe(dots[count - 1]);
+        markDeleted(block, from, to, dots);
+    }
 
-        // Now get node at the requested position
-        if (position < 0 || position >= nodeIds.size()) {
-            return "0"; // Default to root if out of bounds
+    /**
+     * Turns one character into a tombstone, for remote deletes. Returns false
+     * if it already was one.
+     */
+    private boolean markDeleted(CrdtBlock block, long nodeId, long dot) {
+        version.observe(dot);
+        if (block.isDeleted()) {
+            return false;
         }
+        int offset = block.offsetOf(nodeId);
+        markDeleted(block, offset, offset + 1, new long[] { dot });
+        return true;
+    }
 
-        return nodeIds.get(position);
+    /**
+     * Turns characters [from, to) of a visible block into tombstones with the
+     * given dots. They are split off into a block of their own first, which
+     * then joins deleted neighbours, so deleting a range one character or one
+     * block at a time leaves one tombstone block.
+     */
+    private void markDeleted(CrdtBlock block, int from, int to, long[] dots) {
+        if (to < block.length) {
+            split(block, to);
+        }
+        if (from > 0) {
+            block = split(block, from);
+        }
+        int position = index.liveRank(block);
+        block.deleteDots = dots;
+        index.update(block);
+        deleteText(position, to - from);
+        tombstoneCount += to - from;
+        CrdtBlock parent = blocks.find(block.parentId);
+        if (absorb(parent, block)) {
+            block = parent;
+        }
+        absorb(block, block.firstChild);
     }
 
-    private void buildNodeIdList(String parentId, Map<String, List<CrdtNode>> childrenMap, List<String> result) {
-        List<CrdtNode> children = childrenMap.get(parentId);
-        if (children == null)
-            return;
+    /**
+     * Moves the characters of block from offset on into a block of their own,
+     * right after it. Returns the new block.
+     */
+    private CrdtBlock split(CrdtBlock block, int offset) {
+        CrdtBlock tail = block.splitAt(offset);
+        index.update(block);
+        index.insertAfter(block, tail);
+        blocks.add(tail);
+        return tail;
+    }
 
-        // Use the same natural ordering as in getDocument
-        Collections.sort(children); // This will use the compareTo method
+    /**
+     * Appends child to block if it continues it in the same state and is the
+     * only thing under it. Returns false if they have to stay apart.
+     */
+    private boolean absorb(CrdtBlock block, CrdtBlock child) {
+        if (child == null || block.firstChild != child || child.nextSibling != null
+                || !block.canExtendWith(child.firstId, child.parentId, child.counter, child.isDeleted())) {
+            return false;
+        }
+        index.remove(child);
+        blocks.remove(child);
+        block.append(child);
+        block.firstChild = child.firstChild;
+        index.update(block);
+        return true;
+    }
 
-        for (CrdtNode node : children) {
-            result.add(node.getUniqueId());
-            buildNodeIdList(node.getUniqueId(), childrenMap, result);
+    /**
+     * Returns the block whose last character is the given one, splitting the
+     * block holding it if needed, or null if the character is not known
+     */
+    private CrdtBlock endingAt(long nodeId) {
+        CrdtBlock block = blocks.find(nodeId);
+        if (block != null && nodeId != block.lastId()) {
+            split(block, block.offsetOf(nodeId) + 1);
         }
+        return block;
     }
 
-    public List<CrdtNode> getAllNodes() {
-        return nodes;
+    // Adds a remote run, or parks it until its parent has arrived. Returns the
+    // number of characters that were new.
+    private int addRemote(CrdtRun incoming) {
+        int added = 0;
+        Deque<CrdtRun> ready = new ArrayDeque<>();
+        ready.add(incoming);
+        while (!ready.isEmpty()) {
+            CrdtRun run = ready.poll();
+            int integrated = integrate(run, ready);
+            if (integrated < 0) {
+                List<CrdtRun> waiting = waitingForParent.get(run.getParentId());
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                    waitingForParent.put(run.getParentId(), waiting);
+                }
+                waiting.add(run);
+                continue;
+            }
+            added += integrated;
+        }
+        return added;
     }
 
-    public List<CrdtNode> getDeletedNodes() {
-        return nodes.stream().filter(CrdtNode::isDeleted).toList();
+    /**
+     * Places the characters of a remote run that this buffer does not have
+     * yet. Known stretches are skipped, so a run that overlaps earlier ones,
+     * as snapshots do, only adds the rest. Runs that were waiting for one of
+     * the new characters are added to ready.
+     *
+     * @return the number of new characters, or -1 if the run's parent is not
+     *         known yet
+     */
+    private int integrate(CrdtRun run, Deque<CrdtRun> ready) {
+        String runText = run.getText();
+        long firstId = run.getFirstId();
+        long lastId = run.getLastId();
+        long[] dots = run.isDeleted() ? run.getDeleteDots() : null;
+        int added = 0;
+        int offset = 0;
+        while (offset < runText.length()) {
+            long id = firstId + offset;
+            CrdtBlock known = blocks.ceiling(id);
+            if (known != null && known.firstId <= id) {
+                offset = (int) (Math.min(known.lastId(), lastId) - firstId) + 1;
+                continue;
+            }
+            int end = known == null || known.firstId > lastId ? runText.length() : (int) (known.firstId - firstId);
+            int purged = Math.min(end - offset, collected.get(CrdtIds.siteIndex(id)) - CrdtIds.clock(id) + 1);
+            if (purged > 0) {
+                offset += purged;
+                continue;
+            }
+            long parentId = offset == 0 ? run.getParentId() : id - 1;
+            CrdtBlock parent = endingAt(parentId);
+            if (parent == null) {
+                // Nothing can be inserted under a purged tombstone any more,
+                // so the rest of the run is a resent copy of purged text
+                if (collected.covers(parentId)) {
+                    return added;
+                }
+                // Only the first character can hang off a node that is not here
+                return -1;
+            }
+            place(parent, id, offset == 0 ? run.getCounter() : 0, runText, dots, offset, end);
+            version.observe(firstId + end - 1);
+            if (dots != null) {
+                for (int i = offset; i < end; i++) {
+                    version.observe(dots[i]);
+                }
+            }
+            for (int i = offset; i < end; i++) {
+                if (earlyDeletes.size() > 0) {
+                    Long earlyDelete = earlyDeletes.remove(firstId + i);
+                    if (earlyDelete != null) {
+                        markDeleted(blocks.find(firstId + i), firstId + i, earlyDelete);
+                    }
+                }
+                if (waitingForParent.size() > 0) {
+                    List<CrdtRun> children = waitingForParent.remove(firstId + i);
+                    if (children != null) {
+                        ready.addAll(children);
+                    }
+                }
+            }
+            added += end - offset;
+            offset = end;
+        }
+        return added;
     }
 
-    public void delete(String siteId, int clock) {
-        CrdtNode nodeToDelete = null;
-        for (CrdtNode node : nodes) {
-            if (node.getSiteId().equals(siteId) && node.getClock() == clock) {
-                nodeToDelete = node;
-                break;
+    /**
+     * Puts text[start, end) under parent, which ends at the parent character:
+     * appended to parent when it continues it, otherwise as a new block among
+     * its children. Deleted when dots is not null.
+     */
+    private void place(CrdtBlock parent, long firstId, int counter, CharSequence source, long[] dots, int start,
+            int end) {
+        boolean deleted = dots != null;
+        int count = end - start;
+        if (parent.firstChild == null && parent.canExtendWith(firstId, parent.lastId(), counter, deleted)) {
+            int position = deleted ? -1 : index.liveRank(parent) + parent.length;
+            parent.append(source, dots, start, end);
+            index.update(parent);
+            if (!deleted) {
+                insertText(position, source, start, end);
+            }
+        } else {
+            CrdtBlock block = CrdtBlock.of(firstId, parent.lastId(), counter, source, start, end);
+            if (deleted) {
+                block.deleteDots = Arrays.copyOfRange(dots, start, end);
             }
+            integrate(parent, block);
+            blocks.add(block);
         }
+        nodeCount += count;
+        if (deleted) {
+            tombstoneCount += count;
+        }
+    }
 
-        if (nodeToDelete != null) {
-            // Get the parent ID before setting deleted flag
-            String parentId = nodeToDelete.getParentId();
+    /**
+     * Links a new block under its parent, in sibling order, and places it in
+     * the position index.
+     *
+     * Local inserts always become the first child, so the sibling walk below
+     * only goes further for concurrent remote inserts under the same parent.
+     */
+    private void integrate(CrdtBlock parent, CrdtBlock block) {
+        CrdtBlock prev = null;
+        CrdtBlock next = parent.firstChild;
+        while (next != null && CrdtBlock.compareSiblings(next.counter, next.firstId, block.counter, block.firstId) < 0) {
+            prev = next;
+            next = next.nextSibling;
+        }
+        block.nextSibling = next;
+        if (prev == null) {
+            parent.firstChild = block;
+        } else {
+            prev.nextSibling = block;
+        }
 
-            // Mark this node as deleted
-            nodeToDelete.setDeleted(true);
-            deletedNodes.add(nodeToDelete);
+        // Document order is a pre-order walk of the tree: a new leaf sits right
+        // before its next sibling, or right after the subtree of the one before it
+        if (next != null) {
+            index.insertBefore(next, block);
+        } else if (prev != null) {
+            index.insertAfter(lastDescendant(prev), block);
+        } else {
+            index.insertAfter(parent == root ? null : parent, block);
+        }
+        if (!block.isDeleted()) {
+            insertText(index.liveRank(block), CharBuffer.wrap(block.chars, 0, block.length), 0, block.length);
+        }
+    }
 
-            // Important: Find all children of this node and reassign their parent
-            for (CrdtNode node : nodes) {
-                if (node.getParentId().equals(nodeToDelete.getUniqueId())) {
-                    // Reassign the parent to be the deleted node's parent
-                    node.setParentId(parentId);
-                    logger.debug("Reassigned node " + node.getCharValue() +
-                            " from parent " + nodeToDelete.getUniqueId() + " to " + parentId);
-                }
+    private void insertText(int position, CharSequence source, int start, int end) {
+        text.insert(position, source.subSequence(start, end));
+        if (patches == null) {
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            int at = position + i - start;
+            TextPatch last = patches.isEmpty() ? null : patches.get(patches.size() - 1);
+            if (last == null || !last.absorbInsert(at, source.charAt(i))) {
+                TextPatch patch = new TextPatch(at);
+                patch.absorbInsert(at, source.charAt(i));
+                patches.add(patch);
             }
+        }
+    }
 
-            logger.debug("Deleted node: " + nodeToDelete.getUniqueId());
+    private void deleteText(int position, int count) {
+        text.delete(position, count);
+        if (patches == null) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int lastIndex = patches.size() - 1;
+            TextPatch last = lastIndex < 0 ? null : patches.get(lastIndex);
+            if (last != null && last.absorbDelete(position)) {
+                continue;
+            }
+            if (last != null && position == last.getOffset() - 1) {
+                patches.set(lastIndex, last.extendBackwards());
+                continue;
+            }
+            TextPatch patch = new TextPatch(position);
+            patch.absorbDelete(position);
+            patches.add(patch);
         }
     }
 
-    public void printBuffer() {
-        for (CrdtNode node : nodes) {
-            if (!node.isDeleted()) {
-                logger.debug("Node: " + node.getCharValue() + " | SiteId: " + node.getSiteId() + " | Clock: "
-                        + node.getClock() + " | Counter: " + node.getCounter());
+    private static CrdtBlock lastDescendant(CrdtBlock block) {
+        while (block.firstChild != null) {
+            CrdtBlock child = block.firstChild;
+            while (child.nextSibling != null) {
+                child = child.nextSibling;
             }
+            block = child;
         }
+        return block;
+    }
+
+    /**
+     * Labels the buffer's diagnostic events with a session
+     */
+    public void setSessionCode(String sessionCode) {
+        this.sessionCode = sessionCode;
     }
 
     public String getSiteId() {
         return siteId;
     }
 
+    // Last clock handed out to a local operation
+    int getClock() {
+        return clock;
+    }
+
     /**
      * Clears all content from the buffer
      */
     public void clear() {
-        this.nodes.clear();
-        this.deletedSet.clear();
-        this.clock = 0;
+        this.blocks.clear();
+        this.blocks.add(root);
+        this.nodeCount = 0;
+        this.tombstoneCount = 0;
+        this.waitingForParent.clear();
+        this.earlyDeletes.clear();
+        this.version.clear();
+        this.collected.clear();
+        this.root.firstChild = null;
+        this.index.clear();
+        this.text.clear();
+        this.localRuns.clear();
+        this.localRunText.setLength(0);
+        this.localDeleteCount = 0;
+        // The clock keeps running so IDs handed out after a reset never collide
+        // with nodes other replicas still hold
+    }
+
+    public String insertAndReturnId(char charValue, String parentId) {
+        return CrdtIds.toString(insertAndReturnId(charValue, CrdtIds.parse(parentId)));
     }
 
     /**
-     * Returns the ID of the last inserted node, or "0" if no nodes exist
-     * 
-     * @return The ID string of the last inserted node
+     * Inserts a whole run of text after the given node in one operation, for
+     * paste and import. Each character is chained to the one before it, so
+     * the run is stored as one block and the position index and the text are
+     * updated once for the whole run. It goes into the pending local changes
+     * as one run, so it is broadcast as a single delta.
+     *
+     * The new nodes have consecutive clocks, so the run is the range of IDs
+     * that ends at the returned one and is run.length() long.
+     *
+     * @return the ID of the last inserted node, or parentId if nothing was inserted
      */
-    public String getLastInsertedId() {
-        if (nodes.isEmpty()) {
-            return "0"; // Default for empty buffer
+    public long insertRun(long parentId, CharSequence run) {
+        InsertEvent event = new InsertEvent();
+        event.begin();
+        long start = System.nanoTime();
+        CrdtBlock parent = run.length() == 0 ? null : endingAt(parentId);
+        if (parent == null) {
+            logger.debug("Unknown parent {} or empty run, insert ignored", CrdtIds.toString(parentId));
+            return parentId;
         }
-        List<CrdtNode> sortedNodes = new ArrayList<>(nodes);
-        Collections.sort(sortedNodes);
 
-        CrdtNode lastNode = sortedNodes.get(sortedNodes.size() - 1);
-        return lastNode.getSiteId() + "-" + lastNode.getClock();
+        // The first node gets the highest counter among the parent's children,
+        // so it becomes the first child and sits right after the parent. Every
+        // other node is the only child of the one before it.
+        int counter = parent.firstChild == null ? 0 : parent.firstChild.counter + 1;
+        long firstId = CrdtIds.of(siteIndex, clock + 1);
+        clock += run.length();
+        place(parent, firstId, counter, run, null, 0, run.length());
+        long lastId = CrdtIds.of(siteIndex, clock);
+        version.observe(lastId);
+        recordLocalInsert(firstId, parentId, counter, run);
+        INSERT_RUN_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        commit(event, run.length());
+        logger.debug("Inserted run of {} characters after {}", run.length(), CrdtIds.toString(parentId));
+        return lastId;
     }
 
-    public String insertAndReturnId(char charValue, String parentId) {
+    public long insertAndReturnId(char charValue, long parentId) {
+        InsertEvent event = new InsertEvent();
+        event.begin();
+        long start = System.nanoTime();
+        CrdtBlock parent = endingAt(parentId);
+        if (parent == null) {
+            logger.debug("Unknown parent {}, insert ignored", CrdtIds.toString(parentId));
+            return parentId;
+        }
         clock++;
-        int counter = 0;
-        Set<Integer> existingCounters = new HashSet<>();
-        for (CrdtNode node : nodes) {
-            if (node.getParentId().equals(parentId)) {
-                existingCounters.add(node.getCounter());
-            }
+        // Siblings are kept in order with the highest counter first, so the next
+        // free counter is one above the first child's. Taking it puts the new
+        // node directly after its parent, which is where the caret is.
+        int counter = parent.firstChild == null ? 0 : parent.firstChild.counter + 1;
+        long id = CrdtIds.of(siteIndex, clock);
+        String value = String.valueOf(charValue);
+        place(parent, id, counter, value, null, 0, 1);
+        version.observe(id);
+        recordLocalInsert(id, parentId, counter, value);
+        INSERT_CHAR_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        commit(event, 1);
+        logger.debug("Inserted node {} after {}", CrdtIds.toString(id), CrdtIds.toString(parentId));
+        return id;
+    }
+
+    private void recordLocalInsert(long firstId, long parentId, int counter, CharSequence inserted) {
+        boolean continuesRun = localRunText.length() > 0 && counter == 0
+                && parentId == localRunFirstId + localRunText.length() - 1 && firstId == parentId + 1;
+        if (!continuesRun) {
+            closeLocalRun();
+            localRunFirstId = firstId;
+            localRunParentId = parentId;
+            localRunCounter = counter;
+        }
+        localRunText.append(inserted);
+    }
+
+    private void closeLocalRun() {
+        if (localRunText.length() > 0) {
+            localRuns.add(new CrdtRun(localRunFirstId, localRunParentId, localRunCounter, localRunText.toString()));
+            localRunText.setLength(0);
         }
-        while (existingCounters.contains(counter)) {
-            counter++;
+    }
+
+    private void commit(CrdtEvent event, int operations) {
+        if (event.shouldCommit()) {
+            event.session = sessionCode;
+            event.site = siteId;
+            event.operations = operations;
+            event.nodes = nodeCount;
+            event.commit();
+        }
+    }
+
+    private static Timer editTimer(String name, String kind) {
+        Timer.Builder builder = Timer.builder(name).publishPercentileHistogram();
+        if (kind != null) {
+            builder.tag("kind", kind);
         }
-        CrdtNode newNode = new CrdtNode(siteId, clock, counter, parentId, charValue);
-        nodes.add(newNode);
-        Collections.sort(nodes);
-        logger.debug("Inserted node: " + newNode);
-        return newNode.getUniqueId();
+        return builder.register(Metrics.globalRegistry);
     }
 }
 
@@ -0,0 +1,133 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The operations produced by one change to a CrdtBuffer: the runs of
+ * characters it inserted and the IDs of the characters it deleted, each with
+ * the dot (site and clock) of the delete. Deltas are shared between
+ * listeners; runs are immutable, and the lists and arrays are never changed
+ * after construction.
+ */
+public class CrdtDelta {
+    private final String originSiteId;
+    private final List<CrdtRun> runs;
+    private final int insertCount;
+    private final long[] deletes;
+    private final long[] deleteDots;
+
+    public CrdtDelta(String originSiteId, List<CrdtRun> runs, long[] deletes, long[] deleteDots) {
+        this(originSiteId, runs, deletes, deleteDots, true);
+    }
+
+    /**
+     * With copy false the delta takes ownership of the list and the arrays
+     */
+    private CrdtDelta(String originSiteId, List<CrdtRun> runs, long[] deletes, long[] deleteDots, boolean copy) {
+        if (deletes.length != deleteDots.length) {
+            throw new IllegalArgumentException("Every delete needs a dot");
+        }
+        this.originSiteId = originSiteId;
+        if (copy) {
+            runs = new ArrayList<>(runs);
+            deletes = deletes.clone();
+            deleteDots = deleteDots.clone();
+        }
+        int characters = 0;
+        for (CrdtRun run : runs) {
+            characters += run.getLength();
+        }
+        this.runs = Collections.unmodifiableList(runs);
+        this.insertCount = characters;
+        this.deletes = deletes;
+        this.deleteDots = deleteDots;
+    }
+
+    /**
+     * Takes ownership of a freshly built list and arrays, for decoders
+     */
+    static CrdtDelta adopt(String originSiteId, List<CrdtRun> runs, long[] deletes, long[] deleteDots) {
+        return new CrdtDelta(originSiteId, runs, deletes, deleteDots, false);
+    }
+
+    /**
+     * Joins deltas into one, for when deliveries pile up. Merging the result
+     * has the same effect as merging the deltas in turn. The origin is kept
+     * only if they all came from the same site, otherwise it is null.
+     */
+    public static CrdtDelta concat(List<CrdtDelta> deltas) {
+        if (deltas.size() == 1) {
+            return deltas.get(0);
+        }
+        String origin = deltas.isEmpty() ? null : deltas.get(0).originSiteId;
+        int runCount = 0;
+        int deleteCount = 0;
+        for (CrdtDelta delta : deltas) {
+            if (origin != null && !origin.equals(delta.originSiteId)) {
+                origin = null;
+            }
+            runCount += delta.runs.size();
+            deleteCount += delta.deletes.length;
+        }
+        List<CrdtRun> runs = new ArrayList<>(runCount);
+        long[] deletes = new long[deleteCount];
+        long[] deleteDots = new long[deleteCount];
+        int offset = 0;
+        for (CrdtDelta delta : deltas) {
+            runs.addAll(delta.runs);
+            System.arraycopy(delta.deletes, 0, deletes, offset, delta.deletes.length);
+            System.arraycopy(delta.deleteDots, 0, deleteDots, offset, delta.deleteDots.length);
+            offset += delta.deletes.length;
+        }
+        return new CrdtDelta(origin, runs, deletes, deleteDots, false);
+    }
+
+    public String getOriginSiteId() {
+        return originSiteId;
+    }
+
+    /**
+     * Inserted runs. A run's parent is in the buffer already or comes in an
+     * earlier run, as long as the delta was taken from a buffer.
+     */
+    public List<CrdtRun> getRuns() {
+        return runs;
+    }
+
+    /**
+     * Number of inserted characters, over all runs
+     */
+    public int getInsertCount() {
+        return insertCount;
+    }
+
+    /**
+     * IDs of the deleted nodes. The array is shared, callers must not modify it.
+     */
+    public long[] getDeletes() {
+        return deletes;
+    }
+
+    /**
+     * Dots of the deletes, in the same order as getDeletes(). Also shared.
+     */
+    public long[] getDeleteDots() {
+        return deleteDots;
+    }
+
+    public boolean isEmpty() {
+        return runs.isEmpty() && deletes.length == 0;
+    }
+
+    public int size() {
+        return insertCount + deletes.length;
+    }
+
+    @Override
+    public String toString() {
+        return "CrdtDelta{origin=" + originSiteId + ", inserts=" + insertCount + ", runs=" + runs.size() + ", deletes="
+                + deletes.length + "}";
+    }
+}
@@ -0,0 +1,114 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact node identifiers. A node ID packs an interned site index into the
+ * high 32 bits and the site's clock into the low 32 bits. The root is 0, and
+ * "siteId-clock" strings are only produced for logs and the string based API.
+ */
+public final class CrdtIds {
+    public static final long ROOT = 0L;
+    public static final String ROOT_STRING = "0";
+    /**
+     * Site indexes are never reused, so the table is capped to keep a stream
+     * of made-up site names from growing it without end. Decoders look names
+     * up instead of interning them, and editor replicas reuse names through
+     * SitePool.
+     */
+    public static final int MAX_SITES = 1 << 20;
+    // Longest site name the codecs accept, in UTF-8 bytes
+    static final int MAX_SITE_NAME_BYTES = 256;
+
+    private static final Map<String, Integer> siteIndexes = new ConcurrentHashMap<>();
+    // Index 0 is reserved for the root. Grown by doubling; slots past
+    // siteCount are empty.
+    private static volatile String[] siteNames = new String[16];
+    private static int siteCount;
+
+    static {
+        siteNames[0] = ROOT_STRING;
+        siteCount = 1;
+    }
+
+    private CrdtIds() {
+    }
+
+    public static long of(int siteIndex, int clock) {
+        return ((long) siteIndex << 32) | (clock & 0xFFFFFFFFL);
+    }
+
+    public static int siteIndex(long id) {
+        return (int) (id >>> 32);
+    }
+
+    public static int clock(long id) {
+        return (int) id;
+    }
+
+    /**
+     * Returns the index for a site name, assigning the next free one on first use
+     *
+     * @throws IllegalArgumentException if MAX_SITES sites are interned already
+     */
+    public static int intern(String siteId) {
+        Integer index = siteIndexes.get(siteId);
+        if (index != null) {
+            return index;
+        }
+        synchronized (CrdtIds.class) {
+            index = siteIndexes.get(siteId);
+            if (index == null) {
+                if (siteCount == MAX_SITES) {
+                    throw new IllegalArgumentException("Too many sites to intern " + siteId);
+                }
+                index = siteCount++;
+                if (index == siteNames.length) {
+                    siteNames = Arrays.copyOf(siteNames, Math.min(index * 2, MAX_SITES));
+                }
+                // The map publishes the name: whoever gets the index from it
+                // also sees the slot
+                siteNames[index] = siteId;
+                siteIndexes.put(siteId, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the index of a site name without interning it, -1 if the name
+     * was never interned
+     */
+    public static int find(String siteId) {
+        Integer index = siteIndexes.get(siteId);
+        return index == null ? -1 : index;
+    }
+
+    public static String siteName(int siteIndex) {
+        return siteNames[siteIndex];
+    }
+
+    public static String toString(long id) {
+        if (id == ROOT) {
+            return ROOT_STRING;
+        }
+        return siteName(siteIndex(id)) + "-" + clock(id);
+    }
+
+    /**
+     * Parses a "siteId-clock" string. Site IDs may contain dashes themselves, so
+     * the clock is whatever follows the last one.
+     */
+    public static long parse(String id) {
+        if (ROOT_STRING.equals(id)) {
+            return ROOT;
+        }
+        int dash = id.lastIndexOf('-');
+        if (dash <= 0) {
+            throw new IllegalArgumentException("Not a node ID: " + id);
+        }
+        return of(intern(id.substring(0, dash)), Integer.parseInt(id.substring(dash + 1)));
+    }
+}
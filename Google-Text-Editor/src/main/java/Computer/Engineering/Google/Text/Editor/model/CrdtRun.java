@@ -0,0 +1,87 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+/**
+ * Inserted characters of one site with consecutive clocks, as deltas carry
+ * them. The first character sits under parentId with the given counter, and
+ * every later one is the only child of the character before it, counter 0.
+ * A run is either visible or deleted as a whole; a deleted run has one delete
+ * dot per character.
+ *
+ * Runs are immutable, so deltas can share them between listeners.
+ */
+public final class CrdtRun {
+    private final long firstId;
+    private final long parentId;
+    private final int counter;
+    private final String text;
+    // Null while visible
+    private final long[] deleteDots;
+
+    public CrdtRun(long firstId, long parentId, int counter, String text) {
+        this(firstId, parentId, counter, text, null);
+    }
+
+    /**
+     * @param deleteDots one dot per character for a deleted run, null for a
+     *                   visible one. Taken over, not copied.
+     */
+    public CrdtRun(long firstId, long parentId, int counter, String text, long[] deleteDots) {
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("A run holds at least one character");
+        }
+        if (deleteDots != null && deleteDots.length != text.length()) {
+            throw new IllegalArgumentException("Every deleted character needs a dot");
+        }
+        this.firstId = firstId;
+        this.parentId = parentId;
+        this.counter = counter;
+        this.text = text;
+        this.deleteDots = deleteDots;
+    }
+
+    public long getFirstId() {
+        return firstId;
+    }
+
+    public long getLastId() {
+        return firstId + text.length() - 1;
+    }
+
+    public long getParentId() {
+        return parentId;
+    }
+
+    public int getCounter() {
+        return counter;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getLength() {
+        return text.length();
+    }
+
+    public boolean isDeleted() {
+        return deleteDots != null;
+    }
+
+    /**
+     * Dot of the delete of the character at offset, 0 if the run is visible
+     */
+    public long getDeleteDot(int offset) {
+        return deleteDots == null ? CrdtIds.ROOT : deleteDots[offset];
+    }
+
+    // Shared, not copied
+    long[] getDeleteDots() {
+        return deleteDots;
+    }
+
+    @Override
+    public String toString() {
+        return "CrdtRun{" + CrdtIds.toString(firstId) + "+" + text.length() + (deleteDots != null ? ", deleted" : "")
+                + "}";
+    }
+}
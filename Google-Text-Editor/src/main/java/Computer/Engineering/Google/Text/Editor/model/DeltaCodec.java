@@ -0,0 +1,336 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary form of a CrdtDelta, for storing operations outside the process.
+ *
+ * Site indexes are only meaningful inside one JVM, so every encoded delta
+ * carries its own table of site names and refers to sites by their position
+ * in it, 0 being the root. Numbers are unsigned LEB128 varints. A node that
+ * continues a run, with the node before it as parent and the next clock of
+ * the same site, is written as flags, counter and character only, so typed
+ * and pasted text costs about three bytes per character. Decoding joins such
+ * nodes back into CrdtRuns.
+ *
+ * Layout: version, origin site ref, site count and names, insert count and
+ * nodes, delete count and (id, dot) pairs.
+ */
+public final class DeltaCodec {
+    static final int FORMAT_VERSION = 1;
+
+    private static final int FLAG_DELETED = 1;
+    // Parent is the previous node, ID is the previous ID plus one
+    private static final int FLAG_CONTINUES_RUN = 2;
+
+    private DeltaCodec() {
+    }
+
+    public static byte[] encode(CrdtDelta delta) {
+        Writer out = new Writer(16 + delta.size() * 4);
+        SiteTable sites = new SiteTable();
+        // Refs are assigned while writing the body, so the body goes first
+        // into its own buffer and the header with the site table in front
+        Writer body = new Writer(16 + delta.size() * 4);
+        long previous = -1;
+        for (CrdtRun run : delta.getRuns()) {
+            long firstId = run.getFirstId();
+            String text = run.getText();
+            for (int i = 0; i < text.length(); i++) {
+                long id = firstId + i;
+                long parentId = i == 0 ? run.getParentId() : id - 1;
+                boolean continuesRun = previous != -1 && parentId == previous && id == previous + 1;
+                body.writeVarint((run.isDeleted() ? FLAG_DELETED : 0) | (continuesRun ? FLAG_CONTINUES_RUN : 0));
+                if (!continuesRun) {
+                    writeId(body, sites, id);
+                    writeId(body, sites, parentId);
+                }
+                body.writeVarint(i == 0 ? run.getCounter() : 0);
+                body.writeVarint(text.charAt(i));
+                if (run.isDeleted()) {
+                    writeId(body, sites, run.getDeleteDot(i));
+                }
+                previous = id;
+            }
+        }
+        long[] deletes = delta.getDeletes();
+        long[] deleteDots = delta.getDeleteDots();
+        body.writeVarint(deletes.length);
+        for (int i = 0; i < deletes.length; i++) {
+            writeId(body, sites, deletes[i]);
+            writeId(body, sites, deleteDots[i]);
+        }
+
+        out.writeVarint(FORMAT_VERSION);
+        out.writeVarint(delta.getOriginSiteId() == null ? 0 : sites.ref(CrdtIds.intern(delta.getOriginSiteId())));
+        out.writeVarint(sites.count);
+        for (int i = 0; i < sites.count; i++) {
+            byte[] name = CrdtIds.siteName(sites.indexes[i]).getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(name.length);
+            out.write(name, 0, name.length);
+        }
+        out.writeVarint(delta.getInsertCount());
+        out.write(body.bytes, 0, body.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a delta whose sites this process already knows. Site names are
+     * looked up, not interned, so bytes from outside cannot fill the intern
+     * table.
+     *
+     * @throws IllegalArgumentException if the bytes are not an encoded delta
+     *         or name a site that was never interned
+     */
+    public static CrdtDelta decode(byte[] bytes) {
+        return decode(bytes, false);
+    }
+
+    /**
+     * Decodes a delta this process or an earlier run of it encoded, such as an
+     * entry read back from the document store, interning the sites it names
+     *
+     * @throws IllegalArgumentException if the bytes are not an encoded delta
+     */
+    public static CrdtDelta restore(byte[] bytes) {
+        return decode(bytes, true);
+    }
+
+    private static CrdtDelta decode(byte[] bytes, boolean internSites) {
+        Reader in = new Reader(bytes);
+        int version = in.readVarint();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown delta format " + version);
+        }
+        int originRef = in.readVarint();
+        int siteCount = in.readVarint();
+        // Every site name takes at least its length byte
+        if (siteCount < 0 || siteCount > in.remaining()) {
+            throw new IllegalArgumentException("Delta names more sites than it has bytes");
+        }
+        // Position 0 stands for the root
+        int[] siteIndexes = new int[siteCount + 1];
+        for (int i = 1; i <= siteCount; i++) {
+            String name = in.readSiteName();
+            siteIndexes[i] = internSites ? CrdtIds.intern(name) : CrdtIds.find(name);
+            if (siteIndexes[i] < 0) {
+                throw new IllegalArgumentException("Unknown site " + name);
+            }
+        }
+        String origin = originRef == 0 ? null : CrdtIds.siteName(siteIndexes[checkRef(originRef, siteIndexes)]);
+
+        int insertCount = in.readVarint();
+        List<CrdtRun> runs = new ArrayList<>();
+        RunBuilder run = new RunBuilder();
+        long previous = -1;
+        for (int i = 0; i < insertCount; i++) {
+            int flags = in.readVarint();
+            long id;
+            long parentId;
+            boolean continuesRun = (flags & FLAG_CONTINUES_RUN) != 0;
+            if (continuesRun) {
+                if (previous == -1) {
+                    throw new IllegalArgumentException("Run continues without a first node");
+                }
+                id = previous + 1;
+                parentId = previous;
+            } else {
+                id = readId(in, siteIndexes);
+                parentId = readId(in, siteIndexes);
+            }
+            int counter = in.readVarint();
+            char value = (char) in.readVarint();
+            boolean deleted = (flags & FLAG_DELETED) != 0;
+            // A node joins the run before it unless it starts a subtree of its
+            // own or changes between visible and deleted
+            if (!continuesRun || counter != 0 || deleted != run.deleted) {
+                run.flushTo(runs);
+                run.start(id, parentId, counter, deleted);
+            }
+            run.add(value, deleted ? readId(in, siteIndexes) : CrdtIds.ROOT);
+            previous = id;
+        }
+        run.flushTo(runs);
+        int deleteCount = in.readVarint();
+        // Every delete takes at least a byte for its ID and one for its dot
+        if (deleteCount < 0 || deleteCount > in.remaining() / 2) {
+            throw new IllegalArgumentException("Delta names more deletes than it has bytes");
+        }
+        long[] deletes = new long[deleteCount];
+        long[] deleteDots = new long[deleteCount];
+        for (int i = 0; i < deleteCount; i++) {
+            deletes[i] = readId(in, siteIndexes);
+            deleteDots[i] = readId(in, siteIndexes);
+        }
+        if (in.position != bytes.length) {
+            throw new IllegalArgumentException("Trailing bytes after delta");
+        }
+        return CrdtDelta.adopt(origin, runs, deletes, deleteDots);
+    }
+
+    // The run being decoded, reused from one run to the next
+    private static final class RunBuilder {
+        final StringBuilder text = new StringBuilder();
+        long[] dots = new long[16];
+        long firstId;
+        long parentId;
+        int counter;
+        boolean deleted;
+
+        void start(long firstId, long parentId, int counter, boolean deleted) {
+            this.firstId = firstId;
+            this.parentId = parentId;
+            this.counter = counter;
+            this.deleted = deleted;
+        }
+
+        void add(char value, long dot) {
+            if (deleted) {
+                if (text.length() == dots.length) {
+                    dots = Arrays.copyOf(dots, dots.length * 2);
+                }
+                dots[text.length()] = dot;
+            }
+            text.append(value);
+        }
+
+        void flushTo(List<CrdtRun> runs) {
+            if (text.length() == 0) {
+                return;
+            }
+            runs.add(new CrdtRun(firstId, parentId, counter, text.toString(),
+                    deleted ? Arrays.copyOf(dots, text.length()) : null));
+            text.setLength(0);
+        }
+    }
+
+    // An ID as site ref and clock; the root and empty dots are a single 0
+    private static void writeId(Writer out, SiteTable sites, long id) {
+        if (id == CrdtIds.ROOT) {
+            out.writeVarint(0);
+            return;
+        }
+        out.writeVarint(sites.ref(CrdtIds.siteIndex(id)));
+        out.writeVarint(CrdtIds.clock(id));
+    }
+
+    private static long readId(Reader in, int[] siteIndexes) {
+        int ref = in.readVarint();
+        if (ref == 0) {
+            return CrdtIds.ROOT;
+        }
+        return CrdtIds.of(siteIndexes[checkRef(ref, siteIndexes)], in.readVarint());
+    }
+
+    // A ref past the site table, or negative after a varint overflowed
+    private static int checkRef(int ref, int[] siteIndexes) {
+        if (ref < 0 || ref >= siteIndexes.length) {
+            throw new IllegalArgumentException("Unknown site ref " + ref);
+        }
+        return ref;
+    }
+
+    /**
+     * Sites in order of first use. Deltas rarely mention more than a handful,
+     * so a linear scan beats a map.
+     */
+    static final class SiteTable {
+        int[] indexes = new int[4];
+        int count;
+
+        int ref(int siteIndex) {
+            for (int i = 0; i < count; i++) {
+                if (indexes[i] == siteIndex) {
+                    return i + 1;
+                }
+            }
+            if (count == indexes.length) {
+                indexes = Arrays.copyOf(indexes, count * 2);
+            }
+            indexes[count++] = siteIndex;
+            return count;
+        }
+    }
+
+    static final class Writer {
+        byte[] bytes;
+        int length;
+
+        Writer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void write(byte[] source, int offset, int count) {
+            ensure(count);
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+
+    static final class Reader {
+        final byte[] bytes;
+        int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (position == bytes.length) {
+                    throw new IllegalArgumentException("Delta ends inside a number");
+                }
+                byte b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        int remaining() {
+            return bytes.length - position;
+        }
+
+        String readSiteName() {
+            int length = readVarint();
+            if (length > CrdtIds.MAX_SITE_NAME_BYTES) {
+                throw new IllegalArgumentException("Site name of " + length + " bytes is too long");
+            }
+            return readString(length);
+        }
+
+        String readString(int length) {
+            if (length < 0 || length > bytes.length - position) {
+                throw new IllegalArgumentException("Delta ends inside a site name");
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
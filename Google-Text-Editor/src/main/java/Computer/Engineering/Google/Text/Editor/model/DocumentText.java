@@ -0,0 +1,117 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+/**
+ * Materialized text of a CrdtBuffer, kept as a gap buffer.
+ *
+ * Edits near the previous edit only move a few characters, which matches how
+ * people type. The String form is cached between edits, so repeated reads of
+ * an unchanged document cost nothing.
+ */
+class DocumentText {
+    private static final int MIN_CAPACITY = 64;
+
+    private char[] chars = new char[MIN_CAPACITY];
+    private int gapStart = 0;
+    private int gapEnd = MIN_CAPACITY;
+    private String cached = "";
+
+    int length() {
+        return chars.length - (gapEnd - gapStart);
+    }
+
+    char charAt(int position) {
+        return position < gapStart ? chars[position] : chars[position + gapEnd - gapStart];
+    }
+
+    void insert(int position, char c) {
+        moveGap(position);
+        ensureGap(1);
+        chars[gapStart++] = c;
+        cached = null;
+    }
+
+    void insert(int position, CharSequence text) {
+        int count = text.length();
+        if (count == 0) {
+            return;
+        }
+        moveGap(position);
+        ensureGap(count);
+        for (int i = 0; i < count; i++) {
+            chars[gapStart++] = text.charAt(i);
+        }
+        cached = null;
+    }
+
+    void delete(int position, int count) {
+        if (count <= 0) {
+            return;
+        }
+        moveGap(position);
+        gapEnd += count;
+        cached = null;
+    }
+
+    String substring(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length());
+        }
+        if (end <= gapStart) {
+            return new String(chars, start, end - start);
+        }
+        int gap = gapEnd - gapStart;
+        if (start >= gapStart) {
+            return new String(chars, start + gap, end - start);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(chars, start, gapStart - start);
+        sb.append(chars, gapEnd, end - gapStart);
+        return sb.toString();
+    }
+
+    void clear() {
+        chars = new char[MIN_CAPACITY];
+        gapStart = 0;
+        gapEnd = MIN_CAPACITY;
+        cached = "";
+    }
+
+    @Override
+    public String toString() {
+        if (cached == null) {
+            cached = substring(0, length());
+        }
+        return cached;
+    }
+
+    private void moveGap(int position) {
+        if (position < 0 || position > length()) {
+            throw new IndexOutOfBoundsException("position " + position + ", length " + length());
+        }
+        if (position < gapStart) {
+            int count = gapStart - position;
+            System.arraycopy(chars, position, chars, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (position > gapStart) {
+            int count = position - gapStart;
+            System.arraycopy(chars, gapEnd, chars, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void ensureGap(int needed) {
+        if (gapEnd - gapStart >= needed) {
+            return;
+        }
+        int length = length();
+        int capacity = Math.max(chars.length * 2, length + needed + MIN_CAPACITY);
+        char[] grown = new char[capacity];
+        int tail = chars.length - gapEnd;
+        System.arraycopy(chars, 0, grown, 0, gapStart);
+        System.arraycopy(chars, gapEnd, grown, capacity - tail, tail);
+        chars = grown;
+        gapEnd = capacity - tail;
+    }
+}
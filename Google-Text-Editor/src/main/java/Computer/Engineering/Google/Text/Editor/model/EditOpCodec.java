@@ -0,0 +1,233 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Binary frames of edit operations, for clients talking to the STOMP
+ * endpoint. A frame holds any number of operations:
+ *
+ * - insert run: a run of text after a parent node, its characters chained
+ *   with consecutive clocks from a first ID
+ * - delete range: count nodes of one site with consecutive clocks
+ * - cursor: the sender's caret, after an anchor node
+ *
+ * Clients send insert runs with the root as first ID and the server assigns
+ * the IDs; the frames the server sends back carry the assigned ones. An ID
+ * of a site the server does not know makes the frame malformed from there on.
+ *
+ * Numbers are unsigned varints as in DeltaCodec, and an ID is a site ref and
+ * a clock, the root a single 0. Sites are numbered in order of first use and
+ * the first use of a site is followed by its name, so a frame is written in
+ * one pass and its size depends only on the operations in it.
+ *
+ * Layout: version, origin site ref, then operations up to the end of the
+ * frame, each a tag and its fields.
+ */
+public final class EditOpCodec {
+    static final int FORMAT_VERSION = 1;
+
+    private static final int INSERT_RUN = 1;
+    private static final int DELETE_RANGE = 2;
+    private static final int CURSOR = 3;
+
+    private EditOpCodec() {
+    }
+
+    /**
+     * Receives the operations of a frame in order. The calls come straight
+     * from the parser, no operation objects are built.
+     */
+    public interface OpHandler {
+        /**
+         * Called once, before the operations
+         *
+         * @param siteId the sender named by the frame, or null
+         */
+        void origin(String siteId);
+
+        /**
+         * @param firstId the ID of the first character, the root if the
+         *                server is to assign them
+         */
+        void insertRun(long parentId, long firstId, String text);
+
+        void deleteRange(long firstId, int count);
+
+        void cursor(long anchorId);
+    }
+
+    /**
+     * Builds one frame. Operations are appended as they are added.
+     */
+    public static final class FrameWriter {
+        private final DeltaCodec.Writer out = new DeltaCodec.Writer(64);
+        private final DeltaCodec.SiteTable sites = new DeltaCodec.SiteTable();
+        private int operations;
+
+        /**
+         * @param originSiteId the sender, null for none
+         */
+        public FrameWriter(String originSiteId) {
+            out.writeVarint(FORMAT_VERSION);
+            if (originSiteId == null) {
+                out.writeVarint(0);
+                return;
+            }
+            // The sender is named whether or not it is an interned site, so
+            // client names never enter the intern table
+            int siteIndex = CrdtIds.find(originSiteId);
+            out.writeVarint(sites.ref(siteIndex));
+            writeName(originSiteId);
+        }
+
+        public FrameWriter insertRun(long parentId, long firstId, CharSequence text) {
+            out.writeVarint(INSERT_RUN);
+            writeId(parentId);
+            writeId(firstId);
+            out.writeVarint(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                out.writeVarint(text.charAt(i));
+            }
+            operations++;
+            return this;
+        }
+
+        public FrameWriter deleteRange(long firstId, int count) {
+            out.writeVarint(DELETE_RANGE);
+            writeId(firstId);
+            out.writeVarint(count);
+            operations++;
+            return this;
+        }
+
+        public FrameWriter cursor(long anchorId) {
+            out.writeVarint(CURSOR);
+            writeId(anchorId);
+            operations++;
+            return this;
+        }
+
+        public int getOperationCount() {
+            return operations;
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void writeId(long id) {
+            if (id == CrdtIds.ROOT) {
+                out.writeVarint(0);
+                return;
+            }
+            writeSite(CrdtIds.siteIndex(id));
+            out.writeVarint(CrdtIds.clock(id));
+        }
+
+        private void writeSite(int siteIndex) {
+            int known = sites.count;
+            int ref = sites.ref(siteIndex);
+            out.writeVarint(ref);
+            if (ref > known) {
+                writeName(CrdtIds.siteName(siteIndex));
+            }
+        }
+
+        private void writeName(String siteId) {
+            byte[] name = siteId.getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(name.length);
+            out.write(name, 0, name.length);
+        }
+    }
+
+    /**
+     * Parses a frame, handing each operation to the handler as it is read.
+     * Operations before a malformed one have already been handed over.
+     *
+     * @throws IllegalArgumentException if the bytes are not a frame
+     */
+    public static void decode(byte[] frame, OpHandler handler) {
+        DeltaCodec.Reader in = new DeltaCodec.Reader(frame);
+        int version = in.readVarint();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown frame format " + version);
+        }
+        SiteRefs sites = new SiteRefs();
+        int originRef = in.readVarint();
+        handler.origin(originRef == 0 ? null : sites.name(in, originRef));
+        char[] chars = null;
+        while (in.position < frame.length) {
+            int tag = in.readVarint();
+            switch (tag) {
+                case INSERT_RUN -> {
+                    long parentId = readId(in, sites);
+                    long firstId = readId(in, sites);
+                    int length = in.readVarint();
+                    // Every character takes at least a byte
+                    if (length < 0 || length > frame.length - in.position) {
+                        throw new IllegalArgumentException("Frame ends inside an insert run");
+                    }
+                    if (chars == null || chars.length < length) {
+                        chars = new char[length];
+                    }
+                    for (int i = 0; i < length; i++) {
+                        chars[i] = (char) in.readVarint();
+                    }
+                    handler.insertRun(parentId, firstId, new String(chars, 0, length));
+                }
+                case DELETE_RANGE -> handler.deleteRange(readId(in, sites), in.readVarint());
+                case CURSOR -> handler.cursor(readId(in, sites));
+                default -> throw new IllegalArgumentException("Unknown operation " + tag);
+            }
+        }
+    }
+
+    private static long readId(DeltaCodec.Reader in, SiteRefs sites) {
+        int ref = in.readVarint();
+        if (ref == 0) {
+            return CrdtIds.ROOT;
+        }
+        int siteIndex = sites.resolve(in, ref);
+        return CrdtIds.of(siteIndex, in.readVarint());
+    }
+
+    // Sites by ref, learned as the frame names them. Names are looked up, not
+    // interned: an ID of a site this JVM has never seen cannot name a node,
+    // and interning whatever clients send would grow the table for good.
+    private static final class SiteRefs {
+        String[] names = new String[4];
+        int[] indexes = new int[4];
+        int count;
+
+        String name(DeltaCodec.Reader in, int ref) {
+            read(in, ref);
+            return names[ref - 1];
+        }
+
+        int resolve(DeltaCodec.Reader in, int ref) {
+            read(in, ref);
+            int siteIndex = indexes[ref - 1];
+            if (siteIndex < 0) {
+                throw new IllegalArgumentException("Unknown site " + names[ref - 1]);
+            }
+            return siteIndex;
+        }
+
+        private void read(DeltaCodec.Reader in, int ref) {
+            if (ref <= count) {
+                return;
+            }
+            if (ref != count + 1) {
+                throw new IllegalArgumentException("Unknown site ref " + ref);
+            }
+            if (count == indexes.length) {
+                names = Arrays.copyOf(names, count * 2);
+                indexes = Arrays.copyOf(indexes, count * 2);
+            }
+            names[count] = in.readSiteName();
+            indexes[count] = CrdtIds.find(names[count]);
+            count++;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+/**
+ * Result of one CrdtBuffer.collectGarbage() pass
+ */
+public class GarbageCollectionStats {
+    private final int purgedNodes;
+    private final int remainingTombstones;
+    private final long reclaimedBytes;
+
+    public GarbageCollectionStats(int purgedNodes, int remainingTombstones, long reclaimedBytes) {
+        this.purgedNodes = purgedNodes;
+        this.remainingTombstones = remainingTombstones;
+        this.reclaimedBytes = reclaimedBytes;
+    }
+
+    public int getPurgedNodes() {
+        return purgedNodes;
+    }
+
+    public int getRemainingTombstones() {
+        return remainingTombstones;
+    }
+
+    /**
+     * Estimated heap freed, see CrdtBlock.ESTIMATED_BYTES
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "GarbageCollectionStats{purged=" + purgedNodes + ", remainingTombstones=" + remainingTombstones
+                + ", reclaimedBytes=" + reclaimedBytes + "}";
+    }
+}
@@ -0,0 +1,258 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Order-statistic tree over every block of a CrdtBuffer (tombstones included),
+ * kept in document order. Each subtree tracks how many characters it holds and
+ * how many of them are still visible, so position lookups run in O(log n) of
+ * the number of blocks.
+ *
+ * The tree is a treap whose links live directly on CrdtBlock, which is why a
+ * block must only ever belong to one buffer. Every operation walks links in
+ * loops, never recursing, and the walks in document order (first, successor)
+ * need no stack at all, so a document of any length is traversed in constant
+ * stack space.
+ */
+class PositionIndex {
+    private CrdtBlock root;
+
+    int size() {
+        return weight(root);
+    }
+
+    int liveCount() {
+        return liveWeight(root);
+    }
+
+    void clear() {
+        root = null;
+    }
+
+    /**
+     * Inserts node directly after prev in document order, or at the very front
+     * when prev is null.
+     */
+    void insertAfter(CrdtBlock prev, CrdtBlock node) {
+        reset(node);
+        if (root == null) {
+            root = node;
+            return;
+        }
+        CrdtBlock at;
+        if (prev == null) {
+            at = leftmost(root);
+            attach(at, node, true);
+        } else if (prev.right == null) {
+            attach(prev, node, false);
+        } else {
+            at = leftmost(prev.right);
+            attach(at, node, true);
+        }
+        bubbleUp(node);
+    }
+
+    /**
+     * Inserts node directly before next in document order.
+     */
+    void insertBefore(CrdtBlock next, CrdtBlock node) {
+        reset(node);
+        if (next.left == null) {
+            attach(next, node, true);
+        } else {
+            attach(rightmost(next.left), node, false);
+        }
+        bubbleUp(node);
+    }
+
+    /**
+     * Removes node from the tree. It is rotated down until it has at most one
+     * child, which then takes its place, so no step recurses.
+     */
+    void remove(CrdtBlock node) {
+        while (node.left != null && node.right != null) {
+            rotateUp(node.left.priority > node.right.priority ? node.left : node.right);
+        }
+        CrdtBlock child = node.left != null ? node.left : node.right;
+        CrdtBlock parent = node.up;
+        if (child != null) {
+            child.up = parent;
+        }
+        if (parent == null) {
+            root = child;
+        } else {
+            if (parent.left == node) {
+                parent.left = child;
+            } else {
+                parent.right = child;
+            }
+            for (CrdtBlock x = parent; x != null; x = x.up) {
+                recompute(x);
+            }
+        }
+        node.left = null;
+        node.right = null;
+        node.up = null;
+    }
+
+    /**
+     * Refreshes the counts after node's length or deleted state changed.
+     */
+    void update(CrdtBlock node) {
+        for (CrdtBlock x = node; x != null; x = x.up) {
+            recompute(x);
+        }
+    }
+
+    /**
+     * Number of visible characters that come before node in document order.
+     */
+    int liveRank(CrdtBlock node) {
+        int rank = liveWeight(node.left);
+        for (CrdtBlock x = node; x.up != null; x = x.up) {
+            if (x == x.up.right) {
+                rank += liveWeight(x.up.left) + liveSelf(x.up);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * ID of the visible character at the given position, or the root when out
+     * of bounds.
+     */
+    long liveIdAt(int position) {
+        if (position < 0 || position >= liveCount()) {
+            return CrdtIds.ROOT;
+        }
+        CrdtBlock n = root;
+        while (n != null) {
+            int leftLive = liveWeight(n.left);
+            if (position < leftLive) {
+                n = n.left;
+            } else if (position < leftLive + liveSelf(n)) {
+                return n.firstId + (position - leftLive);
+            } else {
+                position -= leftLive + liveSelf(n);
+                n = n.right;
+            }
+        }
+        return CrdtIds.ROOT;
+    }
+
+    CrdtBlock first() {
+        return root == null ? null : leftmost(root);
+    }
+
+    CrdtBlock last() {
+        return root == null ? null : rightmost(root);
+    }
+
+    CrdtBlock successor(CrdtBlock node) {
+        if (node.right != null) {
+            return leftmost(node.right);
+        }
+        CrdtBlock x = node;
+        while (x.up != null && x == x.up.right) {
+            x = x.up;
+        }
+        return x.up;
+    }
+
+    CrdtBlock predecessor(CrdtBlock node) {
+        if (node.left != null) {
+            return rightmost(node.left);
+        }
+        CrdtBlock x = node;
+        while (x.up != null && x == x.up.left) {
+            x = x.up;
+        }
+        return x.up;
+    }
+
+    private void attach(CrdtBlock parent, CrdtBlock node, boolean asLeft) {
+        if (asLeft) {
+            parent.left = node;
+        } else {
+            parent.right = node;
+        }
+        node.up = parent;
+        for (CrdtBlock x = parent; x != null; x = x.up) {
+            recompute(x);
+        }
+    }
+
+    private void bubbleUp(CrdtBlock node) {
+        while (node.up != null && node.up.priority < node.priority) {
+            rotateUp(node);
+        }
+    }
+
+    private void rotateUp(CrdtBlock x) {
+        CrdtBlock p = x.up;
+        CrdtBlock g = p.up;
+        if (x == p.left) {
+            p.left = x.right;
+            if (x.right != null) {
+                x.right.up = p;
+            }
+            x.right = p;
+        } else {
+            p.right = x.left;
+            if (x.left != null) {
+                x.left.up = p;
+            }
+            x.left = p;
+        }
+        p.up = x;
+        x.up = g;
+        if (g == null) {
+            root = x;
+        } else if (g.left == p) {
+            g.left = x;
+        } else {
+            g.right = x;
+        }
+        recompute(p);
+        recompute(x);
+    }
+
+    private static void reset(CrdtBlock node) {
+        node.left = null;
+        node.right = null;
+        node.up = null;
+        node.priority = ThreadLocalRandom.current().nextInt();
+        recompute(node);
+    }
+
+    private static void recompute(CrdtBlock n) {
+        n.weight = n.length + weight(n.left) + weight(n.right);
+        n.liveWeight = liveSelf(n) + liveWeight(n.left) + liveWeight(n.right);
+    }
+
+    private static CrdtBlock leftmost(CrdtBlock n) {
+        while (n.left != null) {
+            n = n.left;
+        }
+        return n;
+    }
+
+    private static CrdtBlock rightmost(CrdtBlock n) {
+        while (n.right != null) {
+            n = n.right;
+        }
+        return n;
+    }
+
+    private static int liveSelf(CrdtBlock n) {
+        return n.liveLength();
+    }
+
+    private static int weight(CrdtBlock n) {
+        return n == null ? 0 : n.weight;
+    }
+
+    private static int liveWeight(CrdtBlock n) {
+        return n == null ? 0 : n.liveWeight;
+    }
+}
@@ -1,22 +1,63 @@
 package Computer.Engineering.Google.Text.Editor.model;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
 public class SharedBuffer {
   private static final CrdtBuffer INSTANCE = new CrdtBuffer("shared");
    private static final Map<String, CrdtBuffer> sessionBuffers = new ConcurrentHashMap<>();
+
+    // Sizes are read off the replicas without locking, close enough for a gauge
+    static {
+        Gauge.builder("editor.shared.sessions", sessionBuffers, Map::size)
+                .description("Session documents held in memory")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("editor.shared.nodes", sessionBuffers, SharedBuffer::nodeCount)
+                .description("CRDT nodes of the session documents, tombstones included")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("editor.shared.tombstone.ratio", sessionBuffers, SharedBuffer::tombstoneRatio)
+                .description("Share of the session documents' nodes that are tombstones")
+                .register(Metrics.globalRegistry);
+    }
     
     
-    
+    /**
+     * Returns the server's replica of a session document. DocumentPersistence
+     * fills it from storage and merges every saved delta into it.
+     */
     public static CrdtBuffer getInstance(String sessionCode) {
         String baseCode = getBaseSessionCode(sessionCode);
-        return sessionBuffers.computeIfAbsent(baseCode, 
-            k -> new CrdtBuffer("session-" + baseCode));
+        return sessionBuffers.computeIfAbsent(baseCode, k -> {
+            CrdtBuffer buffer = new CrdtBuffer("session-" + baseCode);
+            buffer.setSessionCode(baseCode);
+            return buffer;
+        });
     }
     
     public static void clearSession(String sessionCode) {
         sessionBuffers.remove(getBaseSessionCode(sessionCode));
     }
     
+    private static double nodeCount(Map<String, CrdtBuffer> buffers) {
+        long nodes = 0;
+        for (CrdtBuffer buffer : buffers.values()) {
+            nodes += buffer.getNodeCount();
+        }
+        return nodes;
+    }
+
+    private static double tombstoneRatio(Map<String, CrdtBuffer> buffers) {
+        long nodes = 0;
+        long tombstones = 0;
+        for (CrdtBuffer buffer : buffers.values()) {
+            nodes += buffer.getNodeCount();
+            tombstones += buffer.getTombstoneCount();
+        }
+        return nodes == 0 ? 0 : (double) tombstones / nodes;
+    }
+
     private static String getBaseSessionCode(String code) {
         if (code.endsWith("-view") || code.endsWith("-edit")) {
             return code.substring(0, code.lastIndexOf('-'));
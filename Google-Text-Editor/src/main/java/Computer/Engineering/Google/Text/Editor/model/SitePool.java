@@ -0,0 +1,60 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+
+/**
+ * Site names for editor replicas, which come and go with browser views.
+ *
+ * Interned site indexes are never released, so a fresh name per view would
+ * grow the intern table by one for every view ever opened. A closed replica
+ * hands its name back instead, with the last clock it used, and the next
+ * replica carries on from there as if the same site had reconnected. IDs
+ * stay unique because the site's clock only moves forward, and vectors keep
+ * the highest clock per site, so a gap in a document that never saw the
+ * earlier replica does no harm. The table then grows with the most views
+ * open at once, not with all views ever opened.
+ *
+ * New names are random, so they cannot collide with sites of documents
+ * saved before a restart.
+ */
+public final class SitePool {
+    private static final Deque<Released> released = new ArrayDeque<>();
+
+    private SitePool() {
+    }
+
+    /**
+     * Returns an empty replica under a released site name, or a new one if
+     * none is free
+     */
+    public static CrdtBuffer open() {
+        Released site;
+        synchronized (released) {
+            site = released.poll();
+        }
+        return site == null ? new CrdtBuffer(UUID.randomUUID().toString()) : new CrdtBuffer(site.siteId, site.clock);
+    }
+
+    /**
+     * Hands a replica's site name back. The replica must not make operations
+     * afterwards, and should have left its session, so no peer waits on it.
+     */
+    public static void close(CrdtBuffer buffer) {
+        Released site = new Released(buffer.getSiteId(), buffer.getClock());
+        synchronized (released) {
+            released.push(site);
+        }
+    }
+
+    private static final class Released {
+        final String siteId;
+        final int clock;
+
+        Released(String siteId, int clock) {
+            this.siteId = siteId;
+            this.clock = clock;
+        }
+    }
+}
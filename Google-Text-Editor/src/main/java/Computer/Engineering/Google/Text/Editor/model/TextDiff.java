@@ -0,0 +1,183 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimal character diff between two texts, as the patches that turn one
+ * into the other. Unchanged text between two edits stays untouched, so
+ * applying the patches to a buffer creates no tombstones or nodes for it.
+ *
+ * This is Myers' O((N+M)D) algorithm in linear space: the middle snake of
+ * each range splits it in two until a side is empty. Ranges are kept on an
+ * explicit stack rather than recursed into.
+ *
+ * The search for one middle snake is capped: it gives up once it has spent
+ * about MAX_COST steps, counting diagonals visited and characters compared,
+ * or has searched MAX_EDIT_DISTANCE edits, whichever comes first, but always
+ * searches at least MIN_EDIT_DISTANCE. A range it gives up on is replaced as
+ * a whole, which is still correct, only not minimal. Steps are counted as
+ * they are taken rather than bounded from the range's length, so a long
+ * text with scattered edits still gets a minimal diff for up to a few
+ * thousand edits in one range; a long range with more differences than
+ * that is sent as one delete and insert.
+ */
+public final class TextDiff {
+    // Rough cap on the steps spent finding one middle snake
+    static final long MAX_COST = 1L << 22;
+    // Edit distance searched regardless of cost
+    static final int MIN_EDIT_DISTANCE = 64;
+    // Each edit distance d visits about d diagonals each way, so past
+    // sqrt(MAX_COST) the cap would be spent on diagonals alone
+    static final int MAX_EDIT_DISTANCE = 1 << 11;
+
+    private TextDiff() {
+    }
+
+    /**
+     * Returns the patches that take oldText to newText, in order, each to be
+     * applied to the text the previous one left
+     */
+    public static List<TextPatch> diff(String oldText, String newText) {
+        List<int[]> edits = new ArrayList<>();
+        ArrayDeque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[] { 0, oldText.length(), 0, newText.length() });
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int aStart = range[0];
+            int aEnd = range[1];
+            int bStart = range[2];
+            int bEnd = range[3];
+            while (aStart < aEnd && bStart < bEnd && oldText.charAt(aStart) == newText.charAt(bStart)) {
+                aStart++;
+                bStart++;
+            }
+            while (aStart < aEnd && bStart < bEnd && oldText.charAt(aEnd - 1) == newText.charAt(bEnd - 1)) {
+                aEnd--;
+                bEnd--;
+            }
+            if (aStart == aEnd || bStart == bEnd) {
+                if (aStart < aEnd || bStart < bEnd) {
+                    addEdit(edits, aStart, aEnd, bStart, bEnd);
+                }
+                continue;
+            }
+            int[] split = middleSnake(oldText, aStart, aEnd, newText, bStart, bEnd);
+            if (split == null) {
+                addEdit(edits, aStart, aEnd, bStart, bEnd);
+                continue;
+            }
+            // Left goes on top so edits come out in document order
+            ranges.push(new int[] { split[0], aEnd, split[1], bEnd });
+            ranges.push(new int[] { aStart, split[0], bStart, split[1] });
+        }
+
+        List<TextPatch> patches = new ArrayList<>(edits.size());
+        int shift = 0;
+        for (int[] edit : edits) {
+            patches.add(new TextPatch(edit[0] + shift, edit[1] - edit[0], newText.substring(edit[2], edit[3])));
+            shift += (edit[3] - edit[2]) - (edit[1] - edit[0]);
+        }
+        return patches;
+    }
+
+    // Adds old[aStart, aEnd) -> new[bStart, bEnd), joined with the previous
+    // edit if the two touch
+    private static void addEdit(List<int[]> edits, int aStart, int aEnd, int bStart, int bEnd) {
+        if (!edits.isEmpty()) {
+            int[] last = edits.get(edits.size() - 1);
+            if (last[1] == aStart && last[3] == bStart) {
+                last[1] = aEnd;
+                last[3] = bEnd;
+                return;
+            }
+        }
+        edits.add(new int[] { aStart, aEnd, bStart, bEnd });
+    }
+
+    /**
+     * Returns the point {x, y} where a shortest edit path between the ranges
+     * crosses the middle, or null if the search ran over the caps.
+     * Both ranges are non-empty and differ at their first and last characters.
+     */
+    private static int[] middleSnake(String a, int aStart, int aEnd, String b, int bStart, int bEnd) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int maxD = (n + m + 1) / 2;
+        int limit = Math.min(maxD, MAX_EDIT_DISTANCE);
+        int offset = limit + 1;
+        int length = 2 * limit + 3;
+        // Furthest x reached on each diagonal k = x - y, forward and from the end
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // With an odd delta the paths meet while extending forward
+        boolean odd = (delta & 1) != 0;
+        int kForwardStart = 0;
+        int kForwardEnd = 0;
+        int kBackwardStart = 0;
+        int kBackwardEnd = 0;
+        long cost = 0;
+
+        for (int d = 0; d <= limit; d++) {
+            if (d > MIN_EDIT_DISTANCE && cost > MAX_COST) {
+                return null;
+            }
+            for (int k = -d + kForwardStart; k <= d - kForwardEnd; k += 2) {
+                int i = offset + k;
+                int x = (k == -d || (k != d && forward[i - 1] < forward[i + 1])) ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                int snakeStart = x;
+                while (x < n && y < m && a.charAt(aStart + x) == b.charAt(bStart + y)) {
+                    x++;
+                    y++;
+                }
+                cost += 1 + x - snakeStart;
+                forward[i] = x;
+                if (x > n) {
+                    kForwardEnd += 2;
+                } else if (y > m) {
+                    kForwardStart += 2;
+                } else if (odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < length && backward[j] != -1 && x >= n - backward[j]) {
+                        return new int[] { aStart + x, bStart + y };
+                    }
+                }
+            }
+            for (int k = -d + kBackwardStart; k <= d - kBackwardEnd; k += 2) {
+                int i = offset + k;
+                int x = (k == -d || (k != d && backward[i - 1] < backward[i + 1])) ? backward[i + 1] : backward[i - 1] + 1;
+                int y = x - k;
+                int snakeStart = x;
+                while (x < n && y < m && a.charAt(aEnd - 1 - x) == b.charAt(bEnd - 1 - y)) {
+                    x++;
+                    y++;
+                }
+                cost += 1 + x - snakeStart;
+                backward[i] = x;
+                if (x > n) {
+                    kBackwardEnd += 2;
+                } else if (y > m) {
+                    kBackwardStart += 2;
+                } else if (!odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < length && forward[j] != -1) {
+                        int forwardX = forward[j];
+                        int forwardY = forwardX - (j - offset);
+                        if (forwardX >= n - x) {
+                            return new int[] { aStart + forwardX, bStart + forwardY };
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,91 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+/**
+ * One positional change to the visible text: remove deleteCount characters at
+ * offset, then insert text there. A list of patches applies in order, each to
+ * the text the previous one left.
+ */
+public class TextPatch {
+    private final int offset;
+    private int deleteCount;
+    private final StringBuilder text = new StringBuilder();
+
+    TextPatch(int offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * @throws IllegalArgumentException if offset or deleteCount is negative
+     */
+    public TextPatch(int offset, int deleteCount, String text) {
+        if (offset < 0 || deleteCount < 0) {
+            throw new IllegalArgumentException("Patch of " + deleteCount + " characters at " + offset);
+        }
+        this.offset = offset;
+        this.deleteCount = deleteCount;
+        this.text.append(text);
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getDeleteCount() {
+        return deleteCount;
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    public int getInsertLength() {
+        return text.length();
+    }
+
+    /**
+     * Folds an insert at position into this patch if it lands at the end of
+     * the inserted text. Returns false if it has to become a patch of its own.
+     */
+    boolean absorbInsert(int position, char c) {
+        if (position != offset + text.length()) {
+            return false;
+        }
+        text.append(c);
+        return true;
+    }
+
+    /**
+     * Folds a single character delete at position into this patch if it
+     * touches the patch: the last inserted character, or the character right
+     * after the inserted text. A delete just before the patch is handled by
+     * the caller, since that moves the offset.
+     */
+    boolean absorbDelete(int position) {
+        int end = offset + text.length();
+        if (position == end) {
+            deleteCount++;
+            return true;
+        }
+        if (position == end - 1 && text.length() > 0) {
+            text.setLength(text.length() - 1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns this patch moved one character left to also delete the
+     * character before it, as a backspace does
+     */
+    TextPatch extendBackwards() {
+        TextPatch extended = new TextPatch(offset - 1);
+        extended.deleteCount = deleteCount + 1;
+        extended.text.append(text);
+        return extended;
+    }
+
+    @Override
+    public String toString() {
+        return "TextPatch{offset=" + offset + ", delete=" + deleteCount + ", insert=" + text.length() + "}";
+    }
+}
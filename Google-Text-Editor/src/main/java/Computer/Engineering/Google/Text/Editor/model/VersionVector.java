@@ -0,0 +1,139 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import java.util.Arrays;
+
+/**
+ * Highest clock seen from each site, keyed by interned site index (see
+ * CrdtIds). A session only ever has a handful of sites, so entries are kept
+ * in two small parallel arrays instead of a map.
+ */
+public class VersionVector {
+    private int[] sites;
+    private int[] clocks;
+    private int size;
+
+    public VersionVector() {
+        this.sites = new int[4];
+        this.clocks = new int[4];
+    }
+
+    public VersionVector(VersionVector other) {
+        this.sites = Arrays.copyOf(other.sites, Math.max(other.size, 4));
+        this.clocks = Arrays.copyOf(other.clocks, Math.max(other.size, 4));
+        this.size = other.size;
+    }
+
+    public int get(int siteIndex) {
+        int slot = find(siteIndex);
+        return slot < 0 ? 0 : clocks[slot];
+    }
+
+    /**
+     * Records an operation ID or delete dot, keeping the highest clock per site
+     */
+    public void observe(long dot) {
+        if (dot == CrdtIds.ROOT) {
+            return;
+        }
+        int siteIndex = CrdtIds.siteIndex(dot);
+        int clock = CrdtIds.clock(dot);
+        int slot = find(siteIndex);
+        if (slot >= 0) {
+            if (clock > clocks[slot]) {
+                clocks[slot] = clock;
+            }
+            return;
+        }
+        if (size == sites.length) {
+            sites = Arrays.copyOf(sites, size * 2);
+            clocks = Arrays.copyOf(clocks, size * 2);
+        }
+        sites[size] = siteIndex;
+        clocks[size] = clock;
+        size++;
+    }
+
+    /**
+     * True if the operation with this ID or dot is covered by the vector
+     */
+    public boolean covers(long dot) {
+        return CrdtIds.clock(dot) <= get(CrdtIds.siteIndex(dot));
+    }
+
+    /**
+     * True if every entry of other is covered by this vector
+     */
+    public boolean dominates(VersionVector other) {
+        for (int i = 0; i < other.size; i++) {
+            if (get(other.sites[i]) < other.clocks[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lowers every entry to the one in other. Sites missing from other drop
+     * to zero, which is what a pointwise minimum means for a sparse vector.
+     */
+    public void retainMin(VersionVector other) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int clock = Math.min(clocks[i], other.get(sites[i]));
+            if (clock > 0) {
+                sites[kept] = sites[i];
+                clocks[kept] = clock;
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Raises every entry to the one in other, the pointwise maximum
+     */
+    public void retainMax(VersionVector other) {
+        for (int i = 0; i < other.size; i++) {
+            observe(CrdtIds.of(other.sites[i], other.clocks[i]));
+        }
+    }
+
+    /**
+     * Lowers the entry of the dot's site below the dot, if it covers it
+     */
+    public void retainBefore(long dot) {
+        int slot = find(CrdtIds.siteIndex(dot));
+        if (slot >= 0 && clocks[slot] >= CrdtIds.clock(dot)) {
+            clocks[slot] = CrdtIds.clock(dot) - 1;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(CrdtIds.siteName(sites[i])).append('=').append(clocks[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private int find(int siteIndex) {
+        for (int i = 0; i < size; i++) {
+            if (sites[i] == siteIndex) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,274 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import Computer.Engineering.Google.Text.Editor.model.CrdtBuffer;
+import Computer.Engineering.Google.Text.Editor.model.CrdtDelta;
+import Computer.Engineering.Google.Text.Editor.model.DeltaCodec;
+import Computer.Engineering.Google.Text.Editor.model.SharedBuffer;
+import Computer.Engineering.Google.Text.Editor.sync.CausalStability;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps session documents across restarts.
+ *
+ * Editors hand their local deltas to record(), which only enqueues. A single
+ * writer thread wakes every flush interval, merges the queued deltas into the
+ * session's replica in SharedBuffer, and appends them to the store in one
+ * batch. After snapshotEvery entries of a session it writes a snapshot of
+ * the replica, which lets the store drop the entries it covers, so restoring
+ * a session reads one snapshot and at most snapshotEvery entries however
+ * long its history is.
+ *
+ * A session is loaded from the store on first access, by restore() or by
+ * the writer. Deltas still queued when the process dies are lost, at most
+ * one flush interval's worth. A session nobody has joined or edited for the
+ * idle timeout is written as a snapshot and dropped from memory; the next
+ * access loads it again.
+ *
+ * The replica reports its version vector to CausalStability like every
+ * editor does. Editors restore from it, so no tombstone may be purged before
+ * the replica has merged its delete, or a restored document would keep the
+ * character with nothing left to delete it.
+ */
+@Service
+public class DocumentPersistence {
+    private static final Logger logger = LoggerFactory.getLogger(DocumentPersistence.class);
+
+    private static final class PendingDelta {
+        final String sessionCode;
+        final CrdtDelta delta;
+
+        PendingDelta(String sessionCode, CrdtDelta delta) {
+            this.sessionCode = sessionCode;
+            this.delta = delta;
+        }
+    }
+
+    // Guarded by itself: the writer merges into the replica while editors
+    // take snapshots of it
+    private static final class SessionLog {
+        final String sessionCode;
+        final CrdtBuffer replica;
+        long lastSequence;
+        int sinceSnapshot;
+        // System.nanoTime() of the last access, set under the sessions map's
+        // lock for the key
+        volatile long lastUsed;
+
+        SessionLog(String sessionCode, CrdtBuffer replica) {
+            this.sessionCode = sessionCode;
+            this.replica = replica;
+        }
+    }
+
+    private final DocumentStore store;
+    private final long flushIntervalMillis;
+    private final int snapshotEvery;
+    private final long idleTimeoutMillis;
+    private final ConcurrentLinkedQueue<PendingDelta> pending = new ConcurrentLinkedQueue<>();
+    private final Map<String, SessionLog> sessions = new ConcurrentHashMap<>();
+    // Entries a failed append left behind, retried first. Writer thread only.
+    private final List<LogEntry> unwritten = new ArrayList<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "document-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DocumentPersistence(DocumentStore store,
+            @Value("${editor.persistence.flush-interval-ms:200}") long flushIntervalMillis,
+            @Value("${editor.persistence.snapshot-every:500}") int snapshotEvery,
+            @Value("${editor.persistence.idle-timeout-ms:1800000}") long idleTimeoutMillis) {
+        this.store = store;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.snapshotEvery = snapshotEvery;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    @PostConstruct
+    void start() {
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(5, TimeUnit.SECONDS);
+        // The writer is gone, so this thread can take its place
+        flushQuietly();
+    }
+
+    /**
+     * Queues a session's local changes to be written. Returns at once.
+     */
+    public void record(String sessionCode, CrdtDelta delta) {
+        if (!delta.isEmpty()) {
+            pending.add(new PendingDelta(sessionCode, delta));
+        }
+    }
+
+    /**
+     * Returns everything saved for the session as one snapshot delta, empty
+     * for a new session. The first call for a session reads it from the store.
+     */
+    public CrdtDelta restore(String sessionCode) {
+        SessionLog log = session(sessionCode);
+        synchronized (log) {
+            return log.replica.snapshot();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+            evictIdle();
+        } catch (RuntimeException e) {
+            logger.error("Writing session documents failed, retrying with the next flush", e);
+        }
+    }
+
+    private void flush() {
+        List<LogEntry> entries = new ArrayList<>(unwritten);
+        unwritten.clear();
+        Set<SessionLog> touched = new LinkedHashSet<>();
+        for (PendingDelta next = pending.poll(); next != null; next = pending.poll()) {
+            SessionLog log = session(next.sessionCode);
+            long sequence;
+            synchronized (log) {
+                log.replica.merge(next.delta);
+                sequence = ++log.lastSequence;
+                log.sinceSnapshot++;
+            }
+            entries.add(new LogEntry(log.sessionCode, sequence, DeltaCodec.encode(next.delta)));
+            touched.add(log);
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (SessionLog log : touched) {
+            reportVersion(log);
+        }
+        try {
+            store.append(entries);
+        } catch (RuntimeException e) {
+            unwritten.addAll(entries);
+            throw e;
+        }
+        logger.debug("Wrote {} operations of {} sessions", entries.size(), touched.size());
+        for (SessionLog log : touched) {
+            if (log.sinceSnapshot >= snapshotEvery) {
+                writeSnapshot(log);
+            }
+        }
+    }
+
+    private void writeSnapshot(SessionLog log) {
+        byte[] snapshot;
+        long sequence;
+        int covered;
+        synchronized (log) {
+            // Tombstones every editor has seen need not be stored again
+            log.replica.collectGarbage(CausalStability.stable(log.sessionCode),
+                    CausalStability.reportedOwnClocks(log.sessionCode));
+            snapshot = DeltaCodec.encode(log.replica.snapshot());
+            sequence = log.lastSequence;
+            covered = log.sinceSnapshot;
+        }
+        // Only once it is stored, so a failed write is retried with the next
+        // flush of the session
+        store.writeSnapshot(log.sessionCode, sequence, snapshot);
+        synchronized (log) {
+            log.sinceSnapshot -= covered;
+        }
+        logger.debug("Wrote snapshot of session {} up to {}, {} bytes", log.sessionCode, sequence, snapshot.length);
+    }
+
+    private static void reportVersion(SessionLog log) {
+        synchronized (log) {
+            CausalStability.report(log.sessionCode, log.replica.getSiteId(), log.replica.getVersionVector());
+        }
+    }
+
+    // Touched under the map's lock for the key, which eviction takes too, so
+    // a session handed out here is not dropped while the caller uses it
+    private SessionLog session(String sessionCode) {
+        return sessions.compute(sessionCode, (code, log) -> {
+            if (log == null) {
+                log = load(code);
+            }
+            log.lastUsed = System.nanoTime();
+            return log;
+        });
+    }
+
+    /**
+     * Drops sessions idle for the timeout, after a last snapshot so loading
+     * them again reads no entries. Writer thread only.
+     */
+    private void evictIdle() {
+        // Entries a failed append left behind have sequences the store does
+        // not know yet, and a session loaded again would reuse them
+        if (!unwritten.isEmpty()) {
+            return;
+        }
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        for (SessionLog log : sessions.values()) {
+            if (log.lastUsed - cutoff >= 0) {
+                continue;
+            }
+            if (log.sinceSnapshot > 0) {
+                writeSnapshot(log);
+            }
+            sessions.computeIfPresent(log.sessionCode, (code, current) -> {
+                if (current != log || current.lastUsed - cutoff >= 0) {
+                    return current;
+                }
+                SharedBuffer.clearSession(code);
+                // Loading it again reports afresh
+                CausalStability.remove(code, log.replica.getSiteId());
+                logger.info("Dropped session {} from memory, idle for {} ms", code, idleTimeoutMillis);
+                return null;
+            });
+        }
+    }
+
+    private SessionLog load(String sessionCode) {
+        SessionLog log = new SessionLog(sessionCode, SharedBuffer.getInstance(sessionCode));
+        StoredDocument stored = store.load(sessionCode);
+        if (stored.getSnapshot() != null) {
+            log.replica.merge(DeltaCodec.restore(stored.getSnapshot()));
+        }
+        for (LogEntry entry : stored.getTail()) {
+            try {
+                log.replica.merge(DeltaCodec.restore(entry.getPayload()));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Skipped unreadable entry {} of session {}", entry.getSequence(), sessionCode, e);
+            }
+        }
+        log.lastSequence = stored.getLastSequence();
+        log.sinceSnapshot = stored.getTail().size();
+        reportVersion(log);
+        if (log.lastSequence > 0) {
+            logger.info("Restored session {} from snapshot at {} and {} later operations", sessionCode,
+                    stored.getSnapshotSequence(), stored.getTail().size());
+        }
+        return log;
+    }
+}
@@ -0,0 +1,26 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import java.util.List;
+
+/**
+ * Durable storage for session documents: an append-only log of encoded
+ * deltas per session, plus one snapshot per session that makes the log
+ * entries it covers unnecessary. Payloads are DeltaCodec bytes; stores do
+ * not look inside them. Only DocumentPersistence's writer thread calls
+ * append and writeSnapshot.
+ */
+public interface DocumentStore {
+
+    /**
+     * Appends entries, of any number of sessions, in one write
+     */
+    void append(List<LogEntry> entries);
+
+    /**
+     * Replaces the session's snapshot with one covering every entry up to
+     * and including lastSequence, which may then be dropped
+     */
+    void writeSnapshot(String sessionCode, long lastSequence, byte[] snapshot);
+
+    StoredDocument load(String sessionCode);
+}
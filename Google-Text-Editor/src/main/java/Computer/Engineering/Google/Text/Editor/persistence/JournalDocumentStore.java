@@ -0,0 +1,392 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * DocumentStore on plain files, for when a database is more than needed.
+ * Selected with editor.persistence.store=journal.
+ *
+ * Log entries of all sessions are appended to one journal of fixed size
+ * segment files, each memory mapped, so an append is a copy into the page
+ * cache. Pages are forced to disk together every force interval (group
+ * commit); with an interval of 0 every append is forced before it returns.
+ * Snapshots go to one file per session, written aside and moved into place.
+ * A segment is deleted once snapshots cover every entry in it.
+ *
+ * On startup the segments are scanned in place through their mappings and
+ * only an index of where each session's entries are is kept; payloads are
+ * copied out when the session is loaded. A torn record at the end of the
+ * journal, from a crash mid append, fails its checksum and ends the scan.
+ *
+ * Record layout: body length (int, 0 ends a segment), CRC32 of the body
+ * (int), then the body: format (byte), sequence (long), session code length
+ * (short) and UTF-8 bytes, payload.
+ */
+@Component
+@ConditionalOnProperty(name = "editor.persistence.store", havingValue = "journal")
+public class JournalDocumentStore implements DocumentStore {
+    private static final Logger logger = LoggerFactory.getLogger(JournalDocumentStore.class);
+
+    private static final byte RECORD_FORMAT = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private static final class Segment {
+        final long number;
+        final Path path;
+        MappedByteBuffer buffer;
+        // Highest sequence of every session with entries here
+        final Map<String, Long> lastSequences = new HashMap<>();
+        boolean dirty;
+
+        Segment(long number, Path path, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    // Where one entry's payload is
+    private static final class EntryRef {
+        final Segment segment;
+        final long sequence;
+        final int offset;
+        final int length;
+
+        EntryRef(Segment segment, long sequence, int offset, int length) {
+            this.segment = segment;
+            this.sequence = sequence;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path directory;
+    private final Path snapshotDirectory;
+    private final int segmentBytes;
+    private final long forceIntervalMillis;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<String, List<EntryRef>> entries = new HashMap<>();
+    private final Map<String, Long> snapshotSequences = new HashMap<>();
+    private final ScheduledExecutorService forcer;
+    private Segment active;
+
+    public JournalDocumentStore(@Value("${editor.journal.directory:./data/journal}") Path directory,
+            @Value("${editor.journal.segment-bytes:67108864}") int segmentBytes,
+            @Value("${editor.journal.force-interval-ms:100}") long forceIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.snapshotDirectory = directory.resolve("snapshots");
+        this.segmentBytes = segmentBytes;
+        this.forceIntervalMillis = forceIntervalMillis;
+        Files.createDirectories(snapshotDirectory);
+        long started = System.nanoTime();
+        readSnapshotSequences();
+        replaySegments();
+        logger.info("Journal in {} replayed: {} segments, {} sessions, {} ms", directory, segments.size(),
+                entries.size(), (System.nanoTime() - started) / 1_000_000);
+        if (forceIntervalMillis > 0) {
+            forcer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "journal-force");
+                thread.setDaemon(true);
+                return thread;
+            });
+            forcer.scheduleWithFixedDelay(this::forceQuietly, forceIntervalMillis, forceIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            forcer = null;
+        }
+    }
+
+    @Override
+    public void append(List<LogEntry> batch) {
+        synchronized (this) {
+            for (LogEntry entry : batch) {
+                write(entry);
+            }
+        }
+        if (forceIntervalMillis <= 0) {
+            force();
+        }
+    }
+
+    @Override
+    public void writeSnapshot(String sessionCode, long lastSequence, byte[] snapshot) {
+        Path target = snapshotPath(sessionCode);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putLong(lastSequence).putInt(checksum(ByteBuffer.wrap(snapshot))).flip();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(new ByteBuffer[] { header, ByteBuffer.wrap(snapshot) });
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Writing snapshot of " + sessionCode + " failed", e);
+        }
+        try {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Replacing snapshot of " + sessionCode + " failed", e);
+        }
+        synchronized (this) {
+            snapshotSequences.put(sessionCode, lastSequence);
+            List<EntryRef> refs = entries.get(sessionCode);
+            if (refs != null) {
+                refs.removeIf(ref -> ref.sequence <= lastSequence);
+            }
+            trimSegments();
+        }
+    }
+
+    @Override
+    public synchronized StoredDocument load(String sessionCode) {
+        byte[] snapshot = null;
+        long covered = 0;
+        Path path = snapshotPath(sessionCode);
+        if (Files.exists(path)) {
+            try {
+                ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+                covered = file.getLong();
+                int expected = file.getInt();
+                snapshot = new byte[file.remaining()];
+                file.get(snapshot);
+                if (checksum(ByteBuffer.wrap(snapshot)) != expected) {
+                    throw new IllegalStateException("Snapshot of session " + sessionCode + " is corrupt");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Reading snapshot of " + sessionCode + " failed", e);
+            }
+        }
+        List<LogEntry> tail = new ArrayList<>();
+        for (EntryRef ref : entries.getOrDefault(sessionCode, List.of())) {
+            if (ref.sequence > covered) {
+                byte[] payload = new byte[ref.length];
+                ref.segment.buffer.get(ref.offset, payload);
+                tail.add(new LogEntry(sessionCode, ref.sequence, payload));
+            }
+        }
+        return new StoredDocument(snapshot, covered, tail);
+    }
+
+    @PreDestroy
+    void close() {
+        if (forcer != null) {
+            forcer.shutdown();
+        }
+        force();
+    }
+
+    // Caller holds the lock
+    private void write(LogEntry entry) {
+        byte[] session = entry.getSessionCode().getBytes(StandardCharsets.UTF_8);
+        int bodyBytes = 1 + 8 + 2 + session.length + entry.getPayload().length;
+        if (active.buffer.remaining() < HEADER_BYTES + bodyBytes) {
+            roll(HEADER_BYTES + bodyBytes);
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int start = buffer.position();
+        int bodyStart = start + HEADER_BYTES;
+        buffer.position(bodyStart);
+        buffer.put(RECORD_FORMAT).putLong(entry.getSequence()).putShort((short) session.length).put(session);
+        int payloadOffset = buffer.position();
+        buffer.put(entry.getPayload());
+        int crc = checksum(buffer.slice(bodyStart, bodyBytes));
+        // The length goes in last, so a record is only visible once complete
+        buffer.putInt(start + 4, crc);
+        buffer.putInt(start, bodyBytes);
+        active.dirty = true;
+        index(active, entry.getSessionCode(), entry.getSequence(), payloadOffset, entry.getPayload().length);
+    }
+
+    private void roll(int neededBytes) {
+        long number = active == null ? 0 : active.number + 1;
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        try {
+            active = new Segment(number, path, map(path, Math.max(segmentBytes, neededBytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Creating journal segment " + path + " failed", e);
+        }
+        segments.put(number, active);
+        logger.debug("Journal rolled to {}", path);
+    }
+
+    private void index(Segment segment, String sessionCode, long sequence, int offset, int length) {
+        entries.computeIfAbsent(sessionCode, code -> new ArrayList<>())
+                .add(new EntryRef(segment, sequence, offset, length));
+        segment.lastSequences.merge(sessionCode, sequence, Math::max);
+    }
+
+    /**
+     * Deletes the oldest segments for as long as snapshots cover all of
+     * their entries. Caller holds the lock.
+     */
+    private void trimSegments() {
+        Iterator<Segment> oldest = segments.values().iterator();
+        while (oldest.hasNext()) {
+            Segment segment = oldest.next();
+            if (segment == active || !covered(segment)) {
+                return;
+            }
+            oldest.remove();
+            // Unmapped once collected; Linux lets a mapped file be deleted
+            segment.buffer = null;
+            try {
+                Files.deleteIfExists(segment.path);
+                logger.debug("Deleted journal segment {}", segment.path);
+            } catch (IOException e) {
+                logger.warn("Could not delete journal segment {}", segment.path, e);
+            }
+        }
+    }
+
+    private boolean covered(Segment segment) {
+        for (Map.Entry<String, Long> last : segment.lastSequences.entrySet()) {
+            if (snapshotSequences.getOrDefault(last.getKey(), 0L) < last.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void forceQuietly() {
+        try {
+            force();
+        } catch (RuntimeException e) {
+            logger.error("Forcing the journal to disk failed", e);
+        }
+    }
+
+    // Flushes every segment written since the last force, outside the lock
+    // so appends carry on meanwhile
+    private void force() {
+        List<MappedByteBuffer> dirty = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                if (segment.dirty && segment.buffer != null) {
+                    segment.dirty = false;
+                    dirty.add(segment.buffer);
+                }
+            }
+        }
+        for (MappedByteBuffer buffer : dirty) {
+            buffer.force();
+        }
+    }
+
+    private void readSnapshotSequences() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(snapshotDirectory, "*" + SNAPSHOT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String sessionCode = new String(HexFormat.of().parseHex(name, 0, name.length() - SNAPSHOT_SUFFIX.length()),
+                        StandardCharsets.UTF_8);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    ByteBuffer header = ByteBuffer.allocate(8);
+                    if (channel.read(header) == 8) {
+                        snapshotSequences.put(sessionCode, header.flip().getLong());
+                    }
+                }
+            }
+        }
+    }
+
+    private void replaySegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            segments.put(number, new Segment(number, file, map(file, Files.size(file))));
+        }
+        for (Segment segment : segments.values()) {
+            scan(segment);
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    // Indexes a segment's records and leaves its position after the last one
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (buffer.capacity() - position >= HEADER_BYTES) {
+            int bodyBytes = buffer.getInt(position);
+            if (bodyBytes <= 0 || bodyBytes > buffer.capacity() - position - HEADER_BYTES) {
+                break;
+            }
+            int bodyStart = position + HEADER_BYTES;
+            if (checksum(buffer.slice(bodyStart, bodyBytes)) != buffer.getInt(position + 4)
+                    || buffer.get(bodyStart) != RECORD_FORMAT) {
+                logger.warn("Journal {} ends in a torn record at {}", segment.path, position);
+                break;
+            }
+            long sequence = buffer.getLong(bodyStart + 1);
+            int sessionBytes = buffer.getShort(bodyStart + 9) & 0xFFFF;
+            byte[] session = new byte[sessionBytes];
+            buffer.get(bodyStart + 11, session);
+            String sessionCode = new String(session, StandardCharsets.UTF_8);
+            int payloadOffset = bodyStart + 11 + sessionBytes;
+            if (sequence > snapshotSequences.getOrDefault(sessionCode, 0L)) {
+                index(segment, sessionCode, sequence, payloadOffset, bodyStart + bodyBytes - payloadOffset);
+            } else {
+                segment.lastSequences.merge(sessionCode, sequence, Math::max);
+            }
+            position = bodyStart + bodyBytes;
+        }
+        buffer.position(position);
+    }
+
+    private Path snapshotPath(String sessionCode) {
+        return snapshotDirectory.resolve(HexFormat.of().formatHex(sessionCode.getBytes(StandardCharsets.UTF_8))
+                + SNAPSHOT_SUFFIX);
+    }
+
+    private static MappedByteBuffer map(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping outlives the channel
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static int checksum(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,54 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * DocumentStore on the application's JPA data source (H2 by default). The
+ * default store, editor.persistence.store=jpa.
+ */
+@Component
+@ConditionalOnProperty(name = "editor.persistence.store", havingValue = "jpa", matchIfMissing = true)
+public class JpaDocumentStore implements DocumentStore {
+    private final OperationRepository operations;
+    private final SnapshotRepository snapshots;
+
+    public JpaDocumentStore(OperationRepository operations, SnapshotRepository snapshots) {
+        this.operations = operations;
+        this.snapshots = snapshots;
+    }
+
+    @Override
+    @Transactional
+    public void append(List<LogEntry> entries) {
+        List<OperationRecord> records = new ArrayList<>(entries.size());
+        for (LogEntry entry : entries) {
+            records.add(new OperationRecord(entry.getSessionCode(), entry.getSequence(), entry.getPayload()));
+        }
+        operations.saveAll(records);
+    }
+
+    @Override
+    @Transactional
+    public void writeSnapshot(String sessionCode, long lastSequence, byte[] snapshot) {
+        snapshots.save(new SnapshotRecord(sessionCode, lastSequence, snapshot));
+        operations.deleteCovered(sessionCode, lastSequence);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public StoredDocument load(String sessionCode) {
+        SnapshotRecord snapshot = snapshots.findById(sessionCode).orElse(null);
+        long covered = snapshot == null ? 0 : snapshot.getLastSequence();
+        List<LogEntry> tail = new ArrayList<>();
+        for (OperationRecord record : operations.findBySessionCodeAndSequenceGreaterThanOrderBySequenceAsc(sessionCode,
+                covered)) {
+            tail.add(new LogEntry(record.getSessionCode(), record.getSequence(), record.getPayload()));
+        }
+        return new StoredDocument(snapshot == null ? null : snapshot.getPayload(), covered, tail);
+    }
+}
@@ -0,0 +1,28 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+/**
+ * One encoded delta of a session, numbered in the order it was recorded
+ */
+public class LogEntry {
+    private final String sessionCode;
+    private final long sequence;
+    private final byte[] payload;
+
+    public LogEntry(String sessionCode, long sequence, byte[] payload) {
+        this.sessionCode = sessionCode;
+        this.sequence = sequence;
+        this.payload = payload;
+    }
+
+    public String getSessionCode() {
+        return sessionCode;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,55 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+
+/**
+ * A row of the operation log
+ */
+@Entity
+@Table(name = "operation_log", indexes = @Index(name = "idx_operation_log_session", columnList = "sessionCode, sequence"))
+public class OperationRecord {
+    // A pooled sequence rather than identity columns, so Hibernate can batch inserts
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "operation_log_ids")
+    @SequenceGenerator(name = "operation_log_ids", sequenceName = "operation_log_ids", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false, length = 128)
+    private String sessionCode;
+
+    @Column(nullable = false)
+    private long sequence;
+
+    @Lob
+    @Column(nullable = false)
+    private byte[] payload;
+
+    protected OperationRecord() {
+    }
+
+    public OperationRecord(String sessionCode, long sequence, byte[] payload) {
+        this.sessionCode = sessionCode;
+        this.sequence = sequence;
+        this.payload = payload;
+    }
+
+    public String getSessionCode() {
+        return sessionCode;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
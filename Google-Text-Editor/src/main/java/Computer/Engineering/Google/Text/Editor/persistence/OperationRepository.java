@@ -0,0 +1,17 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface OperationRepository extends JpaRepository<OperationRecord, Long> {
+
+    List<OperationRecord> findBySessionCodeAndSequenceGreaterThanOrderBySequenceAsc(String sessionCode, long sequence);
+
+    @Modifying
+    @Query("delete from OperationRecord o where o.sessionCode = :sessionCode and o.sequence <= :sequence")
+    int deleteCovered(@Param("sessionCode") String sessionCode, @Param("sequence") long sequence);
+}
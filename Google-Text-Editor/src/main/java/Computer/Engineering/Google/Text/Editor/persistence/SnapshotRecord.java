@@ -0,0 +1,47 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+/**
+ * The latest snapshot of a session, one row per session
+ */
+@Entity
+@Table(name = "document_snapshot")
+public class SnapshotRecord {
+    @Id
+    @Column(length = 128)
+    private String sessionCode;
+
+    // Last log entry the snapshot covers
+    @Column(nullable = false)
+    private long lastSequence;
+
+    @Lob
+    @Column(nullable = false)
+    private byte[] payload;
+
+    protected SnapshotRecord() {
+    }
+
+    public SnapshotRecord(String sessionCode, long lastSequence, byte[] payload) {
+        this.sessionCode = sessionCode;
+        this.lastSequence = lastSequence;
+        this.payload = payload;
+    }
+
+    public String getSessionCode() {
+        return sessionCode;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
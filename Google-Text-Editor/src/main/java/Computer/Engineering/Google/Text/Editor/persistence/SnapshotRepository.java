@@ -0,0 +1,6 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface SnapshotRepository extends JpaRepository<SnapshotRecord, String> {
+}
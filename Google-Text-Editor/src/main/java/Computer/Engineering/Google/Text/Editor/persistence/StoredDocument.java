@@ -0,0 +1,44 @@
+package Computer.Engineering.Google.Text.Editor.persistence;
+
+import java.util.List;
+
+/**
+ * What a store holds for a session: the latest snapshot, if any, and the
+ * log entries written after it, oldest first
+ */
+public class StoredDocument {
+    private final byte[] snapshot;
+    private final long snapshotSequence;
+    private final List<LogEntry> tail;
+
+    public StoredDocument(byte[] snapshot, long snapshotSequence, List<LogEntry> tail) {
+        this.snapshot = snapshot;
+        this.snapshotSequence = snapshotSequence;
+        this.tail = tail;
+    }
+
+    /**
+     * The encoded snapshot delta, or null if none was written yet
+     */
+    public byte[] getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Sequence of the last entry the snapshot covers, 0 without one
+     */
+    public long getSnapshotSequence() {
+        return snapshotSequence;
+    }
+
+    public List<LogEntry> getTail() {
+        return tail;
+    }
+
+    /**
+     * Sequence of the last entry written for the session, 0 if none
+     */
+    public long getLastSequence() {
+        return tail.isEmpty() ? snapshotSequence : tail.get(tail.size() - 1).getSequence();
+    }
+}
@@ -1,26 +1,108 @@
 package Computer.Engineering.Google.Text.Editor.services;
 
-import Computer.Engineering.Google.Text.Editor.model.CrdtBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
 import org.springframework.stereotype.Service;
 
+import Computer.Engineering.Google.Text.Editor.diagnostics.RecentOperations;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Documents edited over the STOMP endpoint. Each document has its own
+ * DocumentSequencer, so edits to one document are applied one at a time
+ * while different documents are edited in parallel without sharing a lock.
+ * Applied frames go to /topic/updates/{documentId}.
+ *
+ * Any client can name a new document, and documents live only in memory, so
+ * one that nobody has edited or read for the idle timeout is dropped along
+ * with its text. Naming it again starts an empty document.
+ */
 @Service
 public class CrdtService {
+    private static final Logger logger = LoggerFactory.getLogger(CrdtService.class);
+    private static final ExecutorService sequencerExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final SimpMessageSendingOperations messaging;
+    private final long idleTimeoutMillis;
+    private final Map<String, DocumentSequencer> documents = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "document-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CrdtService(SimpMessageSendingOperations messaging,
+            @Value("${editor.stomp.idle-timeout-ms:1800000}") long idleTimeoutMillis) {
+        this.messaging = messaging;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    @PostConstruct
+    void start() {
+        long interval = Math.max(1, idleTimeoutMillis / 4);
+        evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+    }
 
-    private final CrdtBuffer buffer = new CrdtBuffer("server"); // Server as siteId
+    @PreDestroy
+    void stop() {
+        evictor.shutdownNow();
+    }
 
-    public synchronized void insert(char ch, String parentId) {
-        buffer.insert(ch, parentId);
+    /**
+     * Queues a frame of edit operations (see EditOpCodec) for a document.
+     * Returns at once; the applied operations are published when the
+     * document's writer gets to them.
+     */
+    public void submit(String documentId, byte[] frame) {
+        document(documentId).submit(frame);
     }
 
-    public synchronized void delete(String siteId, int clock) {
-        buffer.delete(siteId, clock);
+    /**
+     * The document's text once every edit submitted so far is applied
+     */
+    public CompletableFuture<String> getDocument(String documentId) {
+        DocumentSequencer document = document(documentId);
+        CompletableFuture<String> text = new CompletableFuture<>();
+        document.run(() -> text.complete(document.getBuffer().getDocument()));
+        return text;
     }
 
-    public synchronized String getDocument() {
-        return buffer.getDocument();
+    // Touched under the map's lock for the key, which eviction takes too, so
+    // a sequencer handed out here is not dropped before the caller has had a
+    // whole idle timeout to queue its task
+    private DocumentSequencer document(String documentId) {
+        return documents.compute(documentId, (id, document) -> {
+            if (document == null) {
+                document = new DocumentSequencer(id, sequencerExecutor,
+                        applied -> messaging.convertAndSend("/topic/updates/" + id, applied));
+            }
+            document.touch();
+            return document;
+        });
     }
 
-    public synchronized void print() {
-        buffer.printBuffer();
+    void evictIdle() {
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        for (String documentId : documents.keySet()) {
+            documents.computeIfPresent(documentId, (id, document) -> {
+                if (!document.isIdleSince(cutoff)) {
+                    return document;
+                }
+                logger.info("Dropped document {}, idle for {} ms", id, idleTimeoutMillis);
+                RecentOperations.remove(id);
+                return null;
+            });
+        }
     }
 }
@@ -0,0 +1,169 @@
+package Computer.Engineering.Google.Text.Editor.services;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Computer.Engineering.Google.Text.Editor.diagnostics.RecentOperations;
+import Computer.Engineering.Google.Text.Editor.model.CrdtBuffer;
+import Computer.Engineering.Google.Text.Editor.model.CrdtIds;
+import Computer.Engineering.Google.Text.Editor.model.EditOpCodec;
+
+/**
+ * The single writer of one document. Any thread may submit; tasks go into a
+ * lock-free queue and one drain task at a time runs them in order, so the
+ * buffer is only ever touched by that task and needs no lock. Applied frames
+ * are published from the drain task too, so subscribers see them in the
+ * order they were applied.
+ */
+class DocumentSequencer {
+    // Tasks run before the drain task yields its thread to other documents
+    static final int MAX_TASKS_PER_DRAIN = 256;
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentSequencer.class);
+
+    private final String documentId;
+    private final CrdtBuffer buffer = new CrdtBuffer("server"); // Server as siteId
+    private final Executor executor;
+    private final Consumer<byte[]> publisher;
+    private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // System.nanoTime() of the last use, see touch()
+    private volatile long lastUsed = System.nanoTime();
+
+    DocumentSequencer(String documentId, Executor executor, Consumer<byte[]> publisher) {
+        this.documentId = documentId;
+        this.executor = executor;
+        this.publisher = publisher;
+        buffer.setSessionCode(documentId);
+    }
+
+    /**
+     * Queues a frame of edit operations (see EditOpCodec). Once applied, the
+     * publisher gets the same operations with the IDs the server gave the
+     * inserted runs, and the sender's cursor. Malformed frames are dropped.
+     */
+    void submit(byte[] frame) {
+        run(() -> {
+            byte[] applied;
+            try {
+                applied = apply(frame);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Dropped edit frame for document {}: {}", documentId, e.getMessage());
+                return;
+            }
+            publisher.accept(applied);
+        });
+    }
+
+    /**
+     * Runs a task on the document's writer, after everything queued before it
+     */
+    void run(Runnable task) {
+        inbox.add(task);
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Marks the document as in use, before queuing a task for it
+     */
+    void touch() {
+        lastUsed = System.nanoTime();
+    }
+
+    /**
+     * Whether the document was not used since the given System.nanoTime()
+     * and has nothing left to run
+     */
+    boolean isIdleSince(long nanoTime) {
+        return lastUsed - nanoTime < 0 && inbox.isEmpty() && !scheduled.get();
+    }
+
+    /**
+     * The buffer, for tasks passed to run() only
+     */
+    CrdtBuffer getBuffer() {
+        return buffer;
+    }
+
+    private void drain() {
+        for (int i = 0; i < MAX_TASKS_PER_DRAIN; i++) {
+            Runnable task = inbox.poll();
+            if (task == null) {
+                break;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Task for document {} failed", documentId, e);
+            }
+        }
+        scheduled.set(false);
+        // A task added after the last poll but before the flag was cleared
+        // found the drain still scheduled, so look again
+        if (!inbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private byte[] apply(byte[] frame) {
+        FrameApplier applier = new FrameApplier();
+        EditOpCodec.decode(frame, applier);
+        RecentOperations.record(documentId, "frame", applier.origin, applier.operations);
+        // Peers learn of the changes from the published frame, not from deltas
+        buffer.takeLocalChanges();
+        return applier.applied.toByteArray();
+    }
+
+    private class FrameApplier implements EditOpCodec.OpHandler {
+        EditOpCodec.FrameWriter applied;
+        String origin;
+        int operations;
+
+        @Override
+        public void origin(String siteId) {
+            origin = siteId;
+            applied = new EditOpCodec.FrameWriter(siteId);
+        }
+
+        @Override
+        public void insertRun(long parentId, long firstId, String text) {
+            if (firstId != CrdtIds.ROOT) {
+                throw new IllegalArgumentException("Clients cannot choose node IDs");
+            }
+            operations += text.length();
+            long lastId = buffer.insertRun(parentId, text);
+            if (lastId != parentId) {
+                // The run took consecutive clocks up to lastId
+                applied.insertRun(parentId, lastId - (text.length() - 1), text);
+            }
+        }
+
+        @Override
+        public void deleteRange(long firstId, int count) {
+            if (firstId == CrdtIds.ROOT) {
+                return;
+            }
+            // Clocks the site never reached hold no nodes, whatever the frame says
+            int lastClock = buffer.getVersionVector().get(CrdtIds.siteIndex(firstId));
+            int length = Math.min(count, lastClock - CrdtIds.clock(firstId) + 1);
+            buffer.deleteRun(firstId, length);
+            if (length > 0) {
+                operations += length;
+                applied.deleteRange(firstId, length);
+            }
+        }
+
+        @Override
+        public void cursor(long anchorId) {
+            applied.cursor(anchorId);
+        }
+    }
+}
@@ -1,66 +1,177 @@
 package Computer.Engineering.Google.Text.Editor.sync;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import Computer.Engineering.Google.Text.Editor.model.CrdtNode;
+import Computer.Engineering.Google.Text.Editor.diagnostics.BroadcastEvent;
+import Computer.Engineering.Google.Text.Editor.diagnostics.DocumentStateEvent;
+import Computer.Engineering.Google.Text.Editor.diagnostics.RecentOperations;
+import Computer.Engineering.Google.Text.Editor.model.CrdtDelta;
+import Computer.Engineering.Google.Text.Editor.model.VersionVector;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
+/**
+ * Fans session events out to the registered editors. Listeners are indexed by
+ * base session code and by user ID, so a broadcast only touches the listeners
+ * of its own session and a targeted send is a single lookup.
+ *
+ * Every listener gets its own DeliveryQueue, drained on a virtual thread, so
+ * the methods below return once the event is queued. Events from one sender
+ * reach each listener in the order they were sent.
+ */
 public class Broadcaster {
-    private static final List<BroadcastListener> listeners = new CopyOnWriteArrayList<>();
+    private static final ExecutorService deliveryExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private static final Map<String, Set<DeliveryQueue>> listenersBySession = new ConcurrentHashMap<>();
+    private static final Map<String, DeliveryQueue> listenersByUser = new ConcurrentHashMap<>();
+    private static final Map<BroadcastListener, DeliveryQueue> queues = new ConcurrentHashMap<>();
+
+    // Time to queue an event for every listener of the session, not to deliver it
+    private static final Timer DELTA_FANOUT_TIMER = fanOutTimer("delta");
+    private static final Timer CURSOR_FANOUT_TIMER = fanOutTimer("cursor");
+
+    static {
+        Gauge.builder("editor.broadcast.listeners", queues, Map::size)
+                .description("Registered editors")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("editor.broadcast.sessions", listenersBySession, Map::size)
+                .description("Sessions with at least one registered editor")
+                .register(Metrics.globalRegistry);
+    }
 
     public interface BroadcastListener {
-        void receiveBroadcast(List<CrdtNode> nodes, List<CrdtNode> deletedNodes);
-        void receiveCursor(String userId, int cursorPos, String color);
+        void receiveBroadcast(CrdtDelta delta);
+        /**
+         * Cursor positions of the session's users, at most one per user
+         */
+        void receiveCursors(List<CursorUpdate> cursors);
         void receiveUserPresence(String userId, String role, boolean isOnline, String sessionCode);
-        void receiveDocumentRequest(String requesterId, String sessionCode);
-        void receiveDocumentState(String documentContent);
+        /**
+         * A user joined and asks for what it is missing
+         *
+         * @param known what the requester has merged. Shared between the
+         *              listeners, so it must not be modified.
+         */
+        void receiveDocumentRequest(String requesterId, String sessionCode, VersionVector known);
+        void receiveDocumentState(CrdtDelta documentState);
         String getUserId();
         String getSessionCode();
+        /**
+         * Caret position to share with the session, or -1 to share none
+         */
+        int getCursorPosition();
+        String getUserColor();
     }
 
-    public static void broadcast(List<CrdtNode> nodes, List<CrdtNode> deletedNodes, String sessionCode) {
-        String baseSessionCode = getBaseSessionCode(sessionCode);
-        listeners.forEach(listener -> {
-            if (baseSessionCode.equals(getBaseSessionCode(listener.getSessionCode()))) {
-                listener.receiveBroadcast(nodes, deletedNodes);
+    public static void broadcast(CrdtDelta delta, String sessionCode) {
+        if (delta.isEmpty()) {
+            return;
+        }
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Set<DeliveryQueue> sessionQueues = sessionQueues(sessionCode);
+        for (DeliveryQueue queue : sessionQueues) {
+            // The author applied its own edit already
+            if (!queue.getListener().getUserId().equals(delta.getOriginSiteId())) {
+                queue.offerDelta(delta);
             }
-        });
+        }
+        DELTA_FANOUT_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        String baseSessionCode = getBaseSessionCode(sessionCode);
+        // A session without listeners would never give its tag back
+        if (!sessionQueues.isEmpty()) {
+            SessionMetrics.countOperations(baseSessionCode, delta.size());
+        }
+        RecentOperations.record(baseSessionCode, "delta", delta.getOriginSiteId(), delta.size());
+        commit(event, baseSessionCode, "delta", sessionQueues.size(), delta.size());
     }
 
     public static void broadcastCursor(String userId, int cursorPos, String color, String sessionCode) {
-        String baseSessionCode = getBaseSessionCode(sessionCode);
-        listeners.forEach(listener -> {
-            if (baseSessionCode.equals(getBaseSessionCode(listener.getSessionCode()))) {
-                listener.receiveCursor(userId, cursorPos, color);
+        CursorUpdate cursor = new CursorUpdate(userId, cursorPos, color);
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Set<DeliveryQueue> sessionQueues = sessionQueues(sessionCode);
+        for (DeliveryQueue queue : sessionQueues) {
+            queue.offerCursor(cursor);
+        }
+        CURSOR_FANOUT_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        commit(event, getBaseSessionCode(sessionCode), "cursor", sessionQueues.size(), 1);
+    }
+
+    /**
+     * Sends every listener of the session the cursors of all the others in one
+     * batch. Run by CursorHeartbeat on each tick.
+     */
+    static void broadcastCursorFrame(String baseSessionCode) {
+        Set<DeliveryQueue> sessionQueues = sessionQueues(baseSessionCode);
+        List<CursorUpdate> frame = new ArrayList<>(sessionQueues.size());
+        for (DeliveryQueue queue : sessionQueues) {
+            BroadcastListener listener = queue.getListener();
+            int position = listener.getCursorPosition();
+            if (position >= 0) {
+                frame.add(new CursorUpdate(listener.getUserId(), position, listener.getUserColor()));
             }
-        });
+        }
+        for (DeliveryQueue queue : sessionQueues) {
+            String userId = queue.getListener().getUserId();
+            for (CursorUpdate cursor : frame) {
+                if (!cursor.getUserId().equals(userId)) {
+                    queue.offerCursor(cursor);
+                }
+            }
+        }
     }
 
     public static void broadcastPresence(String userId, String role, boolean isOnline, String sessionCode) {
         String baseSessionCode = getBaseSessionCode(sessionCode);
-        listeners.forEach(listener -> {
-            if (baseSessionCode.equals(getBaseSessionCode(listener.getSessionCode()))) {
-                listener.receiveUserPresence(userId, role, isOnline, baseSessionCode);
-            }
-        });
+        for (DeliveryQueue queue : sessionQueues(sessionCode)) {
+            BroadcastListener listener = queue.getListener();
+            queue.offer("presence " + userId,
+                    () -> listener.receiveUserPresence(userId, role, isOnline, baseSessionCode));
+        }
     }
 
-    public static void requestDocumentState(String userId, String sessionCode) {
+    /**
+     * Asks the session's other users for the operations the requester has not
+     * merged yet. Each one answers with sendDocumentState().
+     */
+    public static void requestDocumentState(String userId, String sessionCode, VersionVector known) {
         String baseSessionCode = getBaseSessionCode(sessionCode);
-        listeners.forEach(listener -> {
-            if (baseSessionCode.equals(getBaseSessionCode(listener.getSessionCode()))) {
-                listener.receiveDocumentRequest(userId, baseSessionCode);
-            }
-        });
+        for (DeliveryQueue queue : sessionQueues(sessionCode)) {
+            BroadcastListener listener = queue.getListener();
+            queue.offer("request " + userId, () -> listener.receiveDocumentRequest(userId, baseSessionCode, known));
+        }
     }
 
-    public static void sendDocumentState(String targetUserId, String documentContent) {
-        listeners.stream()
-            .filter(listener -> targetUserId.equals(listener.getUserId()))
-            .forEach(listener -> listener.receiveDocumentState(documentContent));
+    public static void sendDocumentState(String targetUserId, CrdtDelta documentState) {
+        DeliveryQueue queue = listenersByUser.get(targetUserId);
+        if (queue != null) {
+            DocumentStateEvent event = new DocumentStateEvent();
+            event.begin();
+            queue.offerDocumentState(documentState);
+            RecentOperations.record(queue.baseSessionCode, "catch-up to " + targetUserId,
+                    documentState.getOriginSiteId(), documentState.size());
+            if (event.shouldCommit()) {
+                event.session = queue.baseSessionCode;
+                event.targetUser = targetUserId;
+                event.operations = documentState.size();
+                event.commit();
+            }
+        }
     }
 
-    private static String getBaseSessionCode(String code) {
+    static String getBaseSessionCode(String code) {
         if (code == null) return "";
         if (code.endsWith("-view") || code.endsWith("-edit")) {
             return code.substring(0, code.lastIndexOf('-'));
@@ -68,11 +179,85 @@ public class Broadcaster {
         return code;
     }
 
-    public static void register(BroadcastListener listener) {
-        listeners.add(listener);
+    private static Set<DeliveryQueue> sessionQueues(String sessionCode) {
+        Set<DeliveryQueue> sessionQueues = listenersBySession.get(getBaseSessionCode(sessionCode));
+        return sessionQueues == null ? Collections.emptySet() : sessionQueues;
+    }
+
+    public static synchronized void register(BroadcastListener listener) {
+        if (queues.containsKey(listener)) {
+            return;
+        }
+        DeliveryQueue queue = new DeliveryQueue(listener, deliveryExecutor);
+        queues.put(listener, queue);
+        listenersByUser.put(listener.getUserId(), queue);
+        index(queue, getBaseSessionCode(listener.getSessionCode()));
+    }
+
+    public static synchronized void unregister(BroadcastListener listener) {
+        DeliveryQueue queue = queues.remove(listener);
+        if (queue == null) {
+            return;
+        }
+        listenersByUser.remove(listener.getUserId(), queue);
+        unindex(queue);
+        queue.close();
+    }
+
+    /**
+     * Moves a registered listener to the session it now reports. Call after
+     * the listener's session code changes, or broadcasts keep going to the
+     * old session.
+     */
+    public static synchronized void updateSession(BroadcastListener listener) {
+        DeliveryQueue queue = queues.get(listener);
+        if (queue == null) {
+            return;
+        }
+        String baseSessionCode = getBaseSessionCode(listener.getSessionCode());
+        if (!baseSessionCode.equals(queue.baseSessionCode)) {
+            unindex(queue);
+            index(queue, baseSessionCode);
+        }
+    }
+
+    private static void commit(BroadcastEvent event, String baseSessionCode, String kind, int listeners,
+            int operations) {
+        if (event.shouldCommit()) {
+            event.session = baseSessionCode;
+            event.kind = kind;
+            event.listeners = listeners;
+            event.operations = operations;
+            event.commit();
+        }
+    }
+
+    private static Timer fanOutTimer(String event) {
+        return Timer.builder("editor.broadcast.fanout")
+                .tag("event", event)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    private static void index(DeliveryQueue queue, String baseSessionCode) {
+        listenersBySession.computeIfAbsent(baseSessionCode, code -> {
+            CursorHeartbeat.start(code);
+            return new CopyOnWriteArraySet<>();
+        }).add(queue);
+        queue.baseSessionCode = baseSessionCode;
     }
 
-    public static void unregister(BroadcastListener listener) {
-        listeners.remove(listener);
+    private static void unindex(DeliveryQueue queue) {
+        Set<DeliveryQueue> sessionQueues = listenersBySession.get(queue.baseSessionCode);
+        if (sessionQueues != null) {
+            sessionQueues.remove(queue);
+            if (sessionQueues.isEmpty()) {
+                listenersBySession.remove(queue.baseSessionCode);
+                CursorHeartbeat.stop(queue.baseSessionCode);
+                RecentOperations.remove(queue.baseSessionCode);
+                SessionMetrics.release(queue.baseSessionCode);
+            }
+        }
+        queue.baseSessionCode = null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package Computer.Engineering.Google.Text.Editor.sync;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import Computer.Engineering.Google.Text.Editor.model.CrdtIds;
+import Computer.Engineering.Google.Text.Editor.model.VersionVector;
+
+/**
+ * Tracks what every replica of a session has merged, so replicas can tell
+ * when a delete has been seen everywhere and its tombstone can be purged.
+ *
+ * Each replica reports its version vector after it changes. A replica that
+ * leaves must be removed, otherwise the session never becomes stable again.
+ */
+public class CausalStability {
+    private static final Map<String, Map<String, VersionVector>> sessions = new ConcurrentHashMap<>();
+
+    private CausalStability() {
+    }
+
+    public static void report(String sessionCode, String replicaId, VersionVector version) {
+        VersionVector copy = new VersionVector(version);
+        sessions.compute(Broadcaster.getBaseSessionCode(sessionCode), (code, replicas) -> {
+            if (replicas == null) {
+                replicas = new ConcurrentHashMap<>();
+            }
+            replicas.put(replicaId, copy);
+            return replicas;
+        });
+    }
+
+    public static void remove(String sessionCode, String replicaId) {
+        sessions.computeIfPresent(Broadcaster.getBaseSessionCode(sessionCode), (code, replicas) -> {
+            replicas.remove(replicaId);
+            return replicas.isEmpty() ? null : replicas;
+        });
+    }
+
+    /**
+     * Pointwise minimum of the reported vectors: every operation it covers has
+     * been merged by every replica of the session.
+     */
+    public static VersionVector stable(String sessionCode) {
+        VersionVector stable = null;
+        Map<String, VersionVector> replicas = sessions.get(Broadcaster.getBaseSessionCode(sessionCode));
+        if (replicas != null) {
+            for (VersionVector version : replicas.values()) {
+                if (stable == null) {
+                    stable = new VersionVector(version);
+                } else {
+                    stable.retainMin(version);
+                }
+            }
+        }
+        return stable == null ? new VersionVector() : stable;
+    }
+
+    /**
+     * The latest clock each replica reported for its own site. A replica that
+     * has merged all of this has every operation another replica could have
+     * made before it saw a stable delete, including inserts under the deleted
+     * node.
+     */
+    public static VersionVector reportedOwnClocks(String sessionCode) {
+        VersionVector own = new VersionVector();
+        Map<String, VersionVector> replicas = sessions.get(Broadcaster.getBaseSessionCode(sessionCode));
+        if (replicas != null) {
+            replicas.forEach((replicaId, version) -> {
+                // Replicas report under their own, interned, site names
+                int siteIndex = CrdtIds.find(replicaId);
+                if (siteIndex > 0) {
+                    own.observe(CrdtIds.of(siteIndex, version.get(siteIndex)));
+                }
+            });
+        }
+        return own;
+    }
+}
@@ -0,0 +1,43 @@
+package Computer.Engineering.Google.Text.Editor.sync;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-sends every session's cursors on a fixed tick, so a cursor update that
+ * got lost is repaired without each view running its own timer. One thread
+ * serves all sessions. Broadcaster starts a session's task when its first
+ * listener registers and cancels it when the last one leaves.
+ */
+class CursorHeartbeat {
+    static final long INTERVAL_MILLIS = 800;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cursor-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<String, ScheduledFuture<?>> tasks = new ConcurrentHashMap<>();
+
+    private CursorHeartbeat() {
+    }
+
+    static void start(String baseSessionCode) {
+        if (baseSessionCode.isEmpty()) {
+            return; // Views outside a session have no cursors to share
+        }
+        tasks.computeIfAbsent(baseSessionCode, code -> scheduler.scheduleWithFixedDelay(
+                () -> Broadcaster.broadcastCursorFrame(code), INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    static void stop(String baseSessionCode) {
+        ScheduledFuture<?> task = tasks.remove(baseSessionCode);
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package Computer.Engineering.Google.Text.Editor.sync;
+
+/**
+ * A user's caret position as delivered to listeners. A position of -1 means
+ * the user left. Only the latest update per user is queued, see DeliveryQueue.
+ */
+public class CursorUpdate {
+    private final String userId;
+    private final int position;
+    private final String color;
+
+    public CursorUpdate(String userId, int position, String color) {
+        this.userId = userId;
+        this.position = position;
+        this.color = color;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getColor() {
+        return color;
+    }
+}
@@ -0,0 +1,169 @@
+package Computer.Engineering.Google.Text.Editor.sync;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Computer.Engineering.Google.Text.Editor.model.CrdtDelta;
+import Computer.Engineering.Google.Text.Editor.sync.Broadcaster.BroadcastListener;
+
+/**
+ * Events waiting for one listener. Senders only enqueue; a drain task on the
+ * executor hands the events to the listener in order, so a slow UI holds up
+ * nobody but itself.
+ *
+ * While a listener is behind, its document deltas and document states are
+ * each merged into one, and cursor updates keep only the latest position per
+ * user, handed over as one batch. Other events carry a key, and a newer event
+ * replaces a pending one with the same key, so presence keeps the latest
+ * status per user and a document request the latest per requester. None of
+ * them is ever dropped, and the queue stays as small as the session.
+ */
+class DeliveryQueue {
+    // Pending deltas, and pending document states, are joined into one once
+    // this many have piled up
+    static final int MAX_DELTAS = 64;
+
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryQueue.class);
+
+    private final BroadcastListener listener;
+    private final Executor executor;
+    // Base session code the queue is indexed under, guarded by Broadcaster.class
+    String baseSessionCode;
+
+    private final List<CrdtDelta> pendingDeltas = new ArrayList<>();
+    private final List<CrdtDelta> pendingStates = new ArrayList<>();
+    private final Map<String, CursorUpdate> pendingCursors = new LinkedHashMap<>();
+    private final Map<String, Runnable> pendingEvents = new LinkedHashMap<>();
+    private boolean scheduled;
+    private boolean closed;
+
+    DeliveryQueue(BroadcastListener listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    BroadcastListener getListener() {
+        return listener;
+    }
+
+    synchronized void offerDelta(CrdtDelta delta) {
+        if (closed) {
+            return;
+        }
+        append(pendingDeltas, delta);
+        schedule();
+    }
+
+    synchronized void offerDocumentState(CrdtDelta documentState) {
+        if (closed) {
+            return;
+        }
+        append(pendingStates, documentState);
+        schedule();
+    }
+
+    synchronized void offerCursor(CursorUpdate cursor) {
+        if (closed) {
+            return;
+        }
+        // Re-inserting moves the user to the end, so updates stay in arrival order
+        pendingCursors.remove(cursor.getUserId());
+        pendingCursors.put(cursor.getUserId(), cursor);
+        schedule();
+    }
+
+    /**
+     * Queues an event, replacing the pending one with the same key if there
+     * is one. The event then goes after the others, as if the old one had
+     * never been sent.
+     */
+    synchronized void offer(String key, Runnable event) {
+        if (closed) {
+            return;
+        }
+        pendingEvents.remove(key);
+        pendingEvents.put(key, event);
+        schedule();
+    }
+
+    /**
+     * Drops whatever is pending and refuses further events
+     */
+    synchronized void close() {
+        closed = true;
+        pendingDeltas.clear();
+        pendingStates.clear();
+        pendingCursors.clear();
+        pendingEvents.clear();
+    }
+
+    // Caller holds the lock
+    private static void append(List<CrdtDelta> pending, CrdtDelta delta) {
+        pending.add(delta);
+        if (pending.size() >= MAX_DELTAS) {
+            CrdtDelta joined = CrdtDelta.concat(pending);
+            pending.clear();
+            pending.add(joined);
+        }
+    }
+
+    // Caller holds the lock. At most one drain runs per queue, which keeps
+    // deliveries to the listener in order.
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<Runnable> events;
+            CrdtDelta states;
+            CrdtDelta deltas;
+            List<CursorUpdate> cursors;
+            synchronized (this) {
+                if (closed || (pendingEvents.isEmpty() && pendingStates.isEmpty() && pendingDeltas.isEmpty()
+                        && pendingCursors.isEmpty())) {
+                    scheduled = false;
+                    return;
+                }
+                events = new ArrayList<>(pendingEvents.values());
+                states = pendingStates.isEmpty() ? null : CrdtDelta.concat(pendingStates);
+                deltas = pendingDeltas.isEmpty() ? null : CrdtDelta.concat(pendingDeltas);
+                cursors = new ArrayList<>(pendingCursors.values());
+                pendingEvents.clear();
+                pendingStates.clear();
+                pendingDeltas.clear();
+                pendingCursors.clear();
+            }
+            // Cursors go last so they are placed against the updated text
+            for (Runnable event : events) {
+                deliver(event);
+            }
+            if (states != null) {
+                deliver(() -> listener.receiveDocumentState(states));
+            }
+            if (deltas != null) {
+                deliver(() -> listener.receiveBroadcast(deltas));
+            }
+            if (!cursors.isEmpty()) {
+                deliver(() -> listener.receiveCursors(cursors));
+            }
+        }
+    }
+
+    private void deliver(Runnable delivery) {
+        try {
+            delivery.run();
+        } catch (RuntimeException e) {
+            logger.warn("Delivery to {} failed", listener.getUserId(), e);
+        }
+    }
+}
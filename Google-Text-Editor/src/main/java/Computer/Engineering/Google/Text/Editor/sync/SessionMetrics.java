@@ -0,0 +1,83 @@
+package Computer.Engineering.Google.Text.Editor.sync;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Operations per session, for finding hot sessions. Every session code would
+ * be a new time series, so at most MAX_TAGGED_SESSIONS open sessions get a
+ * tag of their own and the rest are counted together under "other". A
+ * session gives its tag back when its last listener leaves, and the next
+ * session counted takes the lowest free one.
+ *
+ * A session code is what lets users into a session, so it never goes into a
+ * tag. Sessions are tagged "session-1" and so on, and the debug log tells
+ * which code got which tag.
+ */
+final class SessionMetrics {
+    static final int MAX_TAGGED_SESSIONS = 100;
+    static final String OTHER_SESSIONS = "other";
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionMetrics.class);
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    // Tag numbers in use, guarded by the class lock
+    private static final Map<String, Integer> tagNumbers = new HashMap<>();
+    private static final BitSet usedTags = new BitSet();
+    private static final Counter otherSessions = counter(OTHER_SESSIONS);
+
+    private SessionMetrics() {
+    }
+
+    static void countOperations(String baseSessionCode, int operations) {
+        Counter counter = counters.get(baseSessionCode);
+        if (counter == null) {
+            counter = tag(baseSessionCode);
+        }
+        counter.increment(operations);
+    }
+
+    /**
+     * Frees the session's tag and drops its counter. Called when the
+     * session's last listener leaves.
+     */
+    static synchronized void release(String baseSessionCode) {
+        Counter counter = counters.remove(baseSessionCode);
+        if (counter != null) {
+            Metrics.globalRegistry.remove(counter);
+            usedTags.clear(tagNumbers.remove(baseSessionCode));
+        }
+    }
+
+    private static synchronized Counter tag(String baseSessionCode) {
+        Counter counter = counters.get(baseSessionCode);
+        if (counter != null) {
+            return counter;
+        }
+        if (counters.size() >= MAX_TAGGED_SESSIONS) {
+            return otherSessions;
+        }
+        int number = usedTags.nextClearBit(1);
+        usedTags.set(number);
+        String sessionTag = "session-" + number;
+        logger.debug("Session {} is counted as {}", baseSessionCode, sessionTag);
+        counter = counter(sessionTag);
+        tagNumbers.put(baseSessionCode, number);
+        counters.put(baseSessionCode, counter);
+        return counter;
+    }
+
+    private static Counter counter(String sessionTag) {
+        return Counter.builder("editor.session.operations")
+                .description("CRDT operations broadcast in a session")
+                .tag("session", sessionTag)
+                .register(Metrics.globalRegistry);
+    }
+}
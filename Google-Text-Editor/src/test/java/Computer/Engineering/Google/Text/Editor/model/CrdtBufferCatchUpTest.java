@@ -0,0 +1,88 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import Computer.Engineering.Google.Text.Editor.sync.CausalStability;
+
+/**
+ * Joining editors restore a snapshot that may be behind the session, then
+ * merge changesSince() of a peer for the rest
+ */
+class CrdtBufferCatchUpTest {
+
+    @Test
+    void staleSnapshotCatchesUpOnDeletes() {
+        String session = "catch-up-stale";
+        CrdtBuffer alice = new CrdtBuffer("catch-up-alice");
+        CrdtBuffer bob = new CrdtBuffer("catch-up-bob");
+        CrdtBuffer replica = new CrdtBuffer("catch-up-replica");
+
+        alice.insertRun(CrdtIds.ROOT, "hello");
+        CrdtDelta typed = alice.takeLocalChanges();
+        bob.merge(typed);
+        replica.merge(typed);
+        alice.deleteRange(1, 3);
+        CrdtDelta deleted = alice.takeLocalChanges();
+        bob.merge(deleted);
+        // The replica has not flushed the delete yet, and holds the
+        // tombstones back by reporting what it has
+        CausalStability.report(session, alice.getSiteId(), alice.getVersionVector());
+        CausalStability.report(session, bob.getSiteId(), bob.getVersionVector());
+        CausalStability.report(session, replica.getSiteId(), replica.getVersionVector());
+        for (CrdtBuffer editor : new CrdtBuffer[] { alice, bob }) {
+            GarbageCollectionStats stats = editor.collectGarbage(CausalStability.stable(session),
+                    CausalStability.reportedOwnClocks(session));
+            assertEquals(0, stats.getPurgedNodes());
+        }
+
+        CrdtBuffer joiner = new CrdtBuffer("catch-up-joiner");
+        joiner.merge(replica.snapshot());
+        assertEquals("hello", joiner.getDocument());
+        joiner.merge(bob.changesSince(joiner.getVersionVector()));
+        assertEquals("ho", joiner.getDocument());
+    }
+
+    @Test
+    void parkedRunsAreNotSkipped() {
+        CrdtBuffer alice = new CrdtBuffer("parked-alice");
+        CrdtBuffer tom = new CrdtBuffer("parked-tom");
+        CrdtBuffer replica = new CrdtBuffer("parked-replica");
+
+        tom.insertRun(CrdtIds.ROOT, "x");
+        alice.merge(tom.takeLocalChanges());
+        alice.insertRun(alice.getNodeAt(0), "y");
+        CrdtDelta underTom = alice.takeLocalChanges();
+        alice.insertRun(CrdtIds.ROOT, "q");
+        CrdtDelta atStart = alice.takeLocalChanges();
+        // The replica gets alice's runs before tom's, so the first one waits
+        // for its parent while the second is placed
+        replica.merge(underTom);
+        replica.merge(atStart);
+        assertEquals("q", replica.getDocument());
+        assertEquals(0, replica.getVersionVector().get(CrdtIds.intern(alice.getSiteId())));
+
+        CrdtBuffer joiner = new CrdtBuffer("parked-joiner");
+        joiner.merge(replica.snapshot());
+        joiner.merge(alice.changesSince(joiner.getVersionVector()));
+        assertEquals(alice.getDocument(), joiner.getDocument());
+        assertEquals("qxy", joiner.getDocument());
+    }
+
+    @Test
+    void changesSinceNothingIsEverything() {
+        CrdtBuffer alice = new CrdtBuffer("current-alice");
+        CrdtBuffer bob = new CrdtBuffer("current-bob");
+        alice.insertRun(CrdtIds.ROOT, "abc");
+        alice.deleteRange(0, 1);
+        bob.merge(alice.takeLocalChanges());
+
+        assertTrue(alice.changesSince(bob.getVersionVector()).isEmpty());
+        CrdtBuffer carol = new CrdtBuffer("current-carol");
+        carol.merge(alice.changesSince(new VersionVector()));
+        assertEquals("bc", carol.getDocument());
+        assertEquals(alice.getTombstoneCount(), carol.getTombstoneCount());
+    }
+}
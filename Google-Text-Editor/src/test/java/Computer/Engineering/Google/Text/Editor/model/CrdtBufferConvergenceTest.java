@@ -0,0 +1,108 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Replicas editing concurrently end up with the same text however their
+ * deltas are batched and ordered on the way
+ */
+class CrdtBufferConvergenceTest {
+    private static final int REPLICAS = 3;
+    private static final int STEPS = 1500;
+
+    @Test
+    void convergesWithBatchedDeliveryInOrderPerSender() {
+        for (int seed = 0; seed < 10; seed++) {
+            run("batched-" + seed, new Random(seed), false);
+        }
+    }
+
+    @Test
+    void convergesWithShuffledDelivery() {
+        for (int seed = 0; seed < 10; seed++) {
+            run("shuffled-" + seed, new Random(seed), true);
+        }
+    }
+
+    @Test
+    void concurrentInsertsAtTheSamePlaceKeepOneOrder() {
+        CrdtBuffer alice = new CrdtBuffer("same-place-alice");
+        CrdtBuffer bob = new CrdtBuffer("same-place-bob");
+        alice.insertRun(CrdtIds.ROOT, "ac");
+        bob.merge(alice.takeLocalChanges());
+
+        alice.insertRun(alice.getNodeAt(0), "1");
+        bob.insertRun(bob.getNodeAt(0), "2");
+        CrdtDelta fromAlice = alice.takeLocalChanges();
+        CrdtDelta fromBob = bob.takeLocalChanges();
+        alice.merge(fromBob);
+        bob.merge(fromAlice);
+
+        assertEquals(alice.getDocument(), bob.getDocument());
+        assertEquals(4, alice.getVisibleLength());
+    }
+
+    /**
+     * Each replica makes random local edits. Its deltas go to every other
+     * replica's inbox, and a replica merges a random batch of its inbox from
+     * time to time, concatenated into one delta as the delivery queues do.
+     * In order means each sender's deltas keep their order, as Broadcaster
+     * guarantees; shuffled drops even that.
+     */
+    private static void run(String name, Random random, boolean shuffled) {
+        CrdtBuffer[] replicas = new CrdtBuffer[REPLICAS];
+        List<List<CrdtDelta>> inboxes = new ArrayList<>();
+        for (int i = 0; i < REPLICAS; i++) {
+            replicas[i] = new CrdtBuffer(name + "-" + i);
+            inboxes.add(new ArrayList<>());
+        }
+        for (int step = 0; step < STEPS; step++) {
+            int i = random.nextInt(REPLICAS);
+            CrdtBuffer replica = replicas[i];
+            int action = random.nextInt(10);
+            if (action < 4) {
+                int position = random.nextInt(replica.getVisibleLength() + 1);
+                long parent = position == 0 ? CrdtIds.ROOT : replica.getNodeAt(position - 1);
+                replica.insertRun(parent, random.nextInt(4) == 0 ? "run" : String.valueOf((char) ('a' + step % 26)));
+            } else if (action < 7 && replica.getVisibleLength() > 0) {
+                replica.deleteRange(random.nextInt(replica.getVisibleLength()), 1 + random.nextInt(3));
+            } else {
+                deliver(replica, inboxes.get(i), random, shuffled, random.nextInt(4));
+            }
+            CrdtDelta local = replica.takeLocalChanges();
+            if (!local.isEmpty()) {
+                for (int other = 0; other < REPLICAS; other++) {
+                    if (other != i) {
+                        inboxes.get(other).add(local);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < REPLICAS; i++) {
+            deliver(replicas[i], inboxes.get(i), random, shuffled, inboxes.get(i).size());
+        }
+        for (int i = 1; i < REPLICAS; i++) {
+            assertEquals(replicas[0].getDocument(), replicas[i].getDocument(), name);
+            assertEquals(replicas[0].getNodeCount(), replicas[i].getNodeCount(), name);
+        }
+    }
+
+    private static void deliver(CrdtBuffer replica, List<CrdtDelta> inbox, Random random, boolean shuffled,
+            int count) {
+        if (shuffled) {
+            Collections.shuffle(inbox, random);
+        }
+        List<CrdtDelta> batch = new ArrayList<>(inbox.subList(0, Math.min(count, inbox.size())));
+        inbox.subList(0, batch.size()).clear();
+        if (!batch.isEmpty()) {
+            replica.merge(CrdtDelta.concat(batch));
+        }
+    }
+}
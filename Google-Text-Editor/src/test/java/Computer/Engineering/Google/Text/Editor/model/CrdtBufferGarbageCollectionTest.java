@@ -0,0 +1,171 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import Computer.Engineering.Google.Text.Editor.sync.CausalStability;
+
+/**
+ * Operations that arrive again, or late, after their tombstones were purged
+ */
+class CrdtBufferGarbageCollectionTest {
+
+    @Test
+    void resentOperationsOfPurgedTextAreDropped() {
+        String session = "gc-resent";
+        CrdtBuffer alice = new CrdtBuffer("gc-resent-alice");
+        CrdtBuffer bob = new CrdtBuffer("gc-resent-bob");
+        alice.insertRun(CrdtIds.ROOT, "hello");
+        CrdtDelta typed = alice.takeLocalChanges();
+        bob.merge(typed);
+        alice.deleteRange(2, 3);
+        CrdtDelta deleted = alice.takeLocalChanges();
+        bob.merge(deleted);
+        collect(session, alice, bob);
+        assertEquals(0, alice.getTombstoneCount());
+        int nodes = alice.getNodeCount();
+        VersionVector before = alice.getVersionVector();
+
+        alice.merge(typed);
+        alice.merge(deleted);
+
+        assertEquals("he", alice.getDocument());
+        assertEquals(nodes, alice.getNodeCount());
+        // Nothing was left waiting, which would hold the vector back
+        assertEquals(before.toString(), alice.getVersionVector().toString());
+    }
+
+    @Test
+    void runUnderPurgedNodeIsDropped() {
+        String session = "gc-orphan";
+        CrdtBuffer alice = new CrdtBuffer("gc-orphan-alice");
+        CrdtBuffer bob = new CrdtBuffer("gc-orphan-bob");
+        alice.insertRun(CrdtIds.ROOT, "abc");
+        CrdtDelta typed = alice.takeLocalChanges();
+        bob.merge(typed);
+        // Carol typed after "c" and left without reporting; her delta turns
+        // up only after the tombstone is gone
+        CrdtBuffer carol = new CrdtBuffer("gc-orphan-carol");
+        carol.merge(typed);
+        carol.insertRun(carol.getNodeAt(2), "!");
+        alice.deleteRange(2, 1);
+        bob.merge(alice.takeLocalChanges());
+        collect(session, alice, bob);
+        VersionVector before = alice.getVersionVector();
+
+        alice.merge(carol.takeLocalChanges());
+
+        assertEquals("ab", alice.getDocument());
+        assertEquals(before.toString(), alice.getVersionVector().toString());
+    }
+
+    @Test
+    void waitingOperationsHoldTheVectorBack() {
+        CrdtBuffer alice = new CrdtBuffer("gc-waiting-alice");
+        CrdtBuffer tom = new CrdtBuffer("gc-waiting-tom");
+        CrdtBuffer replica = new CrdtBuffer("gc-waiting-replica");
+        tom.insertRun(CrdtIds.ROOT, "x");
+        CrdtDelta fromTom = tom.takeLocalChanges();
+        alice.merge(fromTom);
+        alice.insertRun(alice.getNodeAt(0), "y");
+        replica.merge(alice.takeLocalChanges());
+        alice.insertRun(CrdtIds.ROOT, "z");
+        replica.merge(alice.takeLocalChanges());
+        int aliceSite = CrdtIds.intern(alice.getSiteId());
+
+        assertEquals(0, replica.getVersionVector().get(aliceSite));
+        replica.merge(fromTom);
+        assertEquals(alice.getVersionVector().get(aliceSite), replica.getVersionVector().get(aliceSite));
+        assertEquals(alice.getDocument(), replica.getDocument());
+    }
+
+    @Test
+    void replicasConvergeWithCollectionAndResends() {
+        for (int seed = 0; seed < 5; seed++) {
+            converge("gc-random-" + seed, new Random(seed));
+        }
+    }
+
+    private static int collect(String session, CrdtBuffer... replicas) {
+        for (CrdtBuffer replica : replicas) {
+            CausalStability.report(session, replica.getSiteId(), replica.getVersionVector());
+        }
+        int purged = 0;
+        for (CrdtBuffer replica : replicas) {
+            purged += replica.collectGarbage(CausalStability.stable(session),
+                    CausalStability.reportedOwnClocks(session)).getPurgedNodes();
+        }
+        return purged;
+    }
+
+    /**
+     * Three replicas edit, deliver in order per sender, collect tombstones
+     * and now and then merge a delta they already had
+     */
+    private static void converge(String session, Random random) {
+        int count = 3;
+        CrdtBuffer[] replicas = new CrdtBuffer[count];
+        List<List<CrdtDelta>> inboxes = new ArrayList<>();
+        List<List<CrdtDelta>> merged = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            replicas[i] = new CrdtBuffer(session + "-" + i);
+            inboxes.add(new ArrayList<>());
+            merged.add(new ArrayList<>());
+        }
+        int purged = 0;
+        for (int step = 0; step < 2000; step++) {
+            int i = random.nextInt(count);
+            CrdtBuffer replica = replicas[i];
+            List<CrdtDelta> inbox = inboxes.get(i);
+            List<CrdtDelta> seen = merged.get(i);
+            int action = random.nextInt(12);
+            if (action < 4) {
+                int position = random.nextInt(replica.getVisibleLength() + 1);
+                replica.insertRun(position == 0 ? CrdtIds.ROOT : replica.getNodeAt(position - 1), "ab");
+            } else if (action < 7 && replica.getVisibleLength() > 0) {
+                replica.deleteRange(random.nextInt(replica.getVisibleLength()), 1 + random.nextInt(3));
+            } else if (action < 9 && !inbox.isEmpty()) {
+                CrdtDelta delta = inbox.remove(0);
+                replica.merge(delta);
+                seen.add(delta);
+            } else if (action < 10 && !seen.isEmpty()) {
+                replica.merge(seen.get(random.nextInt(seen.size())));
+            } else if (action >= 10) {
+                purged += replica.collectGarbage(CausalStability.stable(session),
+                        CausalStability.reportedOwnClocks(session)).getPurgedNodes();
+            }
+            CrdtDelta local = replica.takeLocalChanges();
+            if (!local.isEmpty()) {
+                for (int other = 0; other < count; other++) {
+                    if (other != i) {
+                        inboxes.get(other).add(local);
+                    }
+                }
+            }
+            CausalStability.report(session, replica.getSiteId(), replica.getVersionVector());
+        }
+        for (int i = 0; i < count; i++) {
+            for (CrdtDelta delta : inboxes.get(i)) {
+                replicas[i].merge(delta);
+                merged.get(i).add(delta);
+            }
+        }
+        purged += collect(session, replicas);
+        for (int i = 0; i < count; i++) {
+            for (CrdtDelta delta : merged.get(i)) {
+                replicas[i].merge(delta);
+            }
+        }
+        assertTrue(purged > 0, session);
+        for (int i = 1; i < count; i++) {
+            assertEquals(replicas[0].getDocument(), replicas[i].getDocument(), session);
+            assertEquals(replicas[0].getTombstoneCount(), replicas[i].getTombstoneCount(), session);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DeltaCodecTest {
+
+    @Test
+    void snapshotRoundTrips() {
+        CrdtBuffer alice = new CrdtBuffer("codec-alice");
+        CrdtBuffer bob = new CrdtBuffer("codec-bob");
+        alice.insertRun(CrdtIds.ROOT, "hello world");
+        bob.merge(alice.takeLocalChanges());
+        bob.insertRun(bob.getNodeAt(4), ", there");
+        bob.deleteRange(0, 2);
+        alice.merge(bob.takeLocalChanges());
+
+        CrdtDelta snapshot = alice.snapshot();
+        CrdtDelta decoded = DeltaCodec.decode(DeltaCodec.encode(snapshot));
+
+        assertEquals(snapshot.getOriginSiteId(), decoded.getOriginSiteId());
+        assertEquals(describe(snapshot.getRuns()), describe(decoded.getRuns()));
+        CrdtBuffer restored = new CrdtBuffer("codec-restored");
+        restored.merge(decoded);
+        assertEquals(alice.getDocument(), restored.getDocument());
+        assertEquals(alice.getTombstoneCount(), restored.getTombstoneCount());
+    }
+
+    @Test
+    void deletesRoundTrip() {
+        CrdtBuffer alice = new CrdtBuffer("codec-deletes");
+        alice.insertRun(CrdtIds.ROOT, "abcdef");
+        alice.takeLocalChanges();
+        alice.deleteRange(1, 3);
+        CrdtDelta deletes = alice.takeLocalChanges();
+
+        CrdtDelta decoded = DeltaCodec.decode(DeltaCodec.encode(deletes));
+
+        assertArrayEquals(deletes.getDeletes(), decoded.getDeletes());
+        assertArrayEquals(deletes.getDeleteDots(), decoded.getDeleteDots());
+        assertEquals(0, decoded.getRuns().size());
+    }
+
+    @Test
+    void rejectsMalformedBytes() {
+        byte[] encoded = DeltaCodec.encode(new CrdtBuffer("codec-truncated").snapshot());
+        assertThrows(IllegalArgumentException.class, () -> DeltaCodec.decode(new byte[] { 99 }));
+        assertThrows(IllegalArgumentException.class,
+                () -> DeltaCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        // Version 1, no origin, then a site count far beyond the bytes left
+        byte[] hugeSiteCount = { 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        assertThrows(IllegalArgumentException.class, () -> DeltaCodec.decode(hugeSiteCount));
+        // No sites or inserts, then a delete count far beyond the bytes left
+        byte[] hugeDeleteCount = { 1, 0, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        assertThrows(IllegalArgumentException.class, () -> DeltaCodec.decode(hugeDeleteCount));
+        byte[] negativeDeleteCount = { 1, 0, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F };
+        assertThrows(IllegalArgumentException.class, () -> DeltaCodec.decode(negativeDeleteCount));
+        // Origin refs past the empty site table, one of them negative
+        byte[] unknownOrigin = { 1, 5, 0, 0, 0 };
+        assertThrows(IllegalArgumentException.class, () -> DeltaCodec.decode(unknownOrigin));
+        byte[] negativeOrigin = { 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 0, 0, 0 };
+        assertThrows(IllegalArgumentException.class, () -> DeltaCodec.decode(negativeOrigin));
+        // One delete whose ID has a negative site ref
+        byte[] negativeRef = { 1, 0, 0, 0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 0 };
+        assertThrows(IllegalArgumentException.class, () -> DeltaCodec.decode(negativeRef));
+    }
+
+    @Test
+    void onlyRestoreInternsSites() {
+        CrdtBuffer writer = new CrdtBuffer("codec-site-A");
+        writer.insertRun(CrdtIds.ROOT, "xyz");
+        byte[] encoded = DeltaCodec.encode(writer.takeLocalChanges());
+        // Renames the site to one nobody interned
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] == 'A') {
+                encoded[i] = 'B';
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> DeltaCodec.decode(encoded));
+        assertEquals(-1, CrdtIds.find("codec-site-B"));
+        CrdtBuffer restored = new CrdtBuffer("codec-restoring");
+        restored.merge(DeltaCodec.restore(encoded));
+        assertEquals("xyz", restored.getDocument());
+        assertEquals("codec-site-B", CrdtIds.siteName(CrdtIds.siteIndex(restored.getNodeAt(0))));
+    }
+
+    private static String describe(List<CrdtRun> runs) {
+        StringBuilder description = new StringBuilder();
+        for (CrdtRun run : runs) {
+            description.append(CrdtIds.toString(run.getFirstId())).append('<')
+                    .append(CrdtIds.toString(run.getParentId())).append(' ').append(run.getCounter()).append(' ')
+                    .append(run.getText()).append(run.isDeleted() ? " deleted" : "").append('\n');
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class EditOpCodecTest {
+
+    @Test
+    void frameRoundTrips() {
+        long server = CrdtIds.of(CrdtIds.intern("frame-server"), 0);
+        byte[] frame = new EditOpCodec.FrameWriter("frame-client")
+                .insertRun(server + 3, server + 7, "héllo")
+                .deleteRange(server + 1, 2)
+                .cursor(CrdtIds.ROOT)
+                .insertRun(CrdtIds.ROOT, CrdtIds.ROOT, "")
+                .toByteArray();
+
+        Recorder recorder = new Recorder();
+        EditOpCodec.decode(frame, recorder);
+
+        assertEquals(List.of("origin frame-client",
+                "insert frame-server-3 frame-server-7 héllo",
+                "delete frame-server-1 2",
+                "cursor 0",
+                "insert 0 0 "), recorder.operations);
+    }
+
+    @Test
+    void clientNamesAreNotInterned() {
+        byte[] frame = new EditOpCodec.FrameWriter("frame-never-interned").cursor(CrdtIds.ROOT).toByteArray();
+
+        EditOpCodec.decode(frame, new Recorder());
+
+        assertEquals(-1, CrdtIds.find("frame-never-interned"));
+    }
+
+    @Test
+    void rejectsIdsOfUnknownSites() {
+        long known = CrdtIds.of(CrdtIds.intern("frame-site-1"), 1);
+        byte[] frame = new EditOpCodec.FrameWriter(null).cursor(known).toByteArray();
+        // Renames the site to one nobody interned
+        for (int i = 0; i < frame.length; i++) {
+            if (frame[i] == '1') {
+                frame[i] = '2';
+            }
+        }
+
+        Recorder recorder = new Recorder();
+        assertThrows(IllegalArgumentException.class, () -> EditOpCodec.decode(frame, recorder));
+        assertEquals(List.of("origin null"), recorder.operations);
+        assertEquals(-1, CrdtIds.find("frame-site-2"));
+    }
+
+    @Test
+    void rejectsTruncatedFrames() {
+        byte[] frame = new EditOpCodec.FrameWriter("frame-truncated").insertRun(CrdtIds.ROOT, CrdtIds.ROOT, "abc")
+                .toByteArray();
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 1);
+
+        assertThrows(IllegalArgumentException.class, () -> EditOpCodec.decode(truncated, new Recorder()));
+    }
+
+    private static final class Recorder implements EditOpCodec.OpHandler {
+        final List<String> operations = new ArrayList<>();
+
+        @Override
+        public void origin(String siteId) {
+            operations.add("origin " + siteId);
+        }
+
+        @Override
+        public void insertRun(long parentId, long firstId, String text) {
+            operations.add("insert " + CrdtIds.toString(parentId) + " " + CrdtIds.toString(firstId) + " " + text);
+        }
+
+        @Override
+        public void deleteRange(long firstId, int count) {
+            operations.add("delete " + CrdtIds.toString(firstId) + " " + count);
+        }
+
+        @Override
+        public void cursor(long anchorId) {
+            operations.add("cursor " + CrdtIds.toString(anchorId));
+        }
+    }
+}
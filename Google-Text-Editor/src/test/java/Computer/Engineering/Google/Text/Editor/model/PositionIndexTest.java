@@ -0,0 +1,83 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Positions and node IDs stay in step through block splits, deletes and
+ * tombstone collection, checked against a plain list of the visible IDs
+ */
+class PositionIndexTest {
+
+    @Test
+    void positionsMatchIdsThroughEdits() {
+        Random random = new Random(7);
+        CrdtBuffer buffer = new CrdtBuffer("index-editor");
+        StringBuilder expectedText = new StringBuilder();
+        List<Long> expectedIds = new ArrayList<>();
+
+        for (int step = 0; step < 2000; step++) {
+            int action = random.nextInt(10);
+            if (action < 5 || expectedIds.isEmpty()) {
+                // Typing into the middle of an earlier run splits its block
+                int position = random.nextInt(expectedIds.size() + 1);
+                long parent = position == 0 ? CrdtIds.ROOT : expectedIds.get(position - 1);
+                String text = random.nextBoolean() ? "x" : "paste" + step;
+                long lastId = buffer.insertRun(parent, text);
+                for (int i = 0; i < text.length(); i++) {
+                    expectedIds.add(position + i, lastId - (text.length() - 1) + i);
+                }
+                expectedText.insert(position, text);
+            } else if (action < 8) {
+                int position = random.nextInt(expectedIds.size());
+                int count = Math.min(1 + random.nextInt(8), expectedIds.size() - position);
+                assertEquals(count, buffer.deleteRange(position, count));
+                expectedIds.subList(position, position + count).clear();
+                expectedText.delete(position, position + count);
+            } else {
+                int position = random.nextInt(expectedIds.size());
+                buffer.delete(expectedIds.remove(position));
+                expectedText.deleteCharAt(position);
+            }
+            if (step % 100 == 0) {
+                // A lone replica has seen everything it deleted
+                buffer.collectGarbage(buffer.getVersionVector(), buffer.getVersionVector());
+            }
+            assertIndexed(buffer, expectedText, expectedIds, random);
+        }
+        // Only tombstones without children go
+        GarbageCollectionStats stats = buffer.collectGarbage(buffer.getVersionVector(), buffer.getVersionVector());
+        assertEquals(stats.getRemainingTombstones(), buffer.getTombstoneCount());
+        assertIndexed(buffer, expectedText, expectedIds, random);
+    }
+
+    @Test
+    void deleteRunSkipsWhatIsGone() {
+        CrdtBuffer buffer = new CrdtBuffer("index-runs");
+        long lastId = buffer.insertRun(CrdtIds.ROOT, "abcdefgh");
+        long firstId = lastId - 7;
+        buffer.delete(firstId + 2);
+
+        assertEquals(3, buffer.deleteRun(firstId + 1, 4));
+        assertEquals("afgh", buffer.getDocument());
+        assertEquals(firstId + 5, buffer.getNodeAt(1));
+        assertEquals(1, buffer.getPositionOf(firstId + 5));
+    }
+
+    private static void assertIndexed(CrdtBuffer buffer, CharSequence expectedText, List<Long> expectedIds,
+            Random random) {
+        assertEquals(expectedText.toString(), buffer.getDocument());
+        assertEquals(expectedIds.size(), buffer.getVisibleLength());
+        for (int i = 0; i < 20 && !expectedIds.isEmpty(); i++) {
+            int position = random.nextInt(expectedIds.size());
+            long id = expectedIds.get(position);
+            assertEquals(id, buffer.getNodeAt(position), "ID at " + position);
+            assertEquals(position, buffer.getPositionOf(id), "position of " + CrdtIds.toString(id));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SitePoolTest {
+
+    @Test
+    void reopenedSiteCarriesOnFromItsClock() {
+        CrdtBuffer first = SitePool.open();
+        first.insertRun(CrdtIds.ROOT, "abc");
+        CrdtBuffer document = new CrdtBuffer("pool-document");
+        document.merge(first.takeLocalChanges());
+        SitePool.close(first);
+
+        CrdtBuffer second = SitePool.open();
+        second.merge(document.snapshot());
+        long id = second.insertRun(second.getNodeAt(2), "d");
+        document.merge(second.takeLocalChanges());
+
+        assertEquals(first.getSiteId(), second.getSiteId());
+        assertTrue(CrdtIds.clock(id) > CrdtIds.clock(first.getNodeAt(2)));
+        assertEquals("abcd", document.getDocument());
+        assertEquals(4, document.getNodeCount());
+    }
+
+    @Test
+    void openSitesAreDistinct() {
+        CrdtBuffer first = SitePool.open();
+        CrdtBuffer second = SitePool.open();
+
+        assertTrue(!first.getSiteId().equals(second.getSiteId()));
+        SitePool.close(first);
+        SitePool.close(second);
+    }
+}
@@ -0,0 +1,63 @@
+package Computer.Engineering.Google.Text.Editor.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TextDiffTest {
+
+    @Test
+    void scatteredEditsInLongTextStayMinimal() {
+        Random random = new Random(3);
+        String oldText = randomText(random, 200_000);
+        StringBuilder newText = new StringBuilder(oldText);
+        // Far more edits than MIN_EDIT_DISTANCE, all in one range
+        for (int i = 0; i < 500; i++) {
+            newText.insert(random.nextInt(newText.length()), 'Z');
+        }
+
+        List<TextPatch> patches = TextDiff.diff(oldText, newText.toString());
+
+        assertEquals(newText.toString(), apply(oldText, patches));
+        int changed = 0;
+        for (TextPatch patch : patches) {
+            changed += patch.getDeleteCount() + patch.getInsertLength();
+        }
+        assertEquals(500, changed);
+    }
+
+    @Test
+    void unrelatedTextsAreReplacedWhole() {
+        Random random = new Random(4);
+        String oldText = randomText(random, 50_000);
+        String newText = randomText(random, 40_000);
+
+        List<TextPatch> patches = TextDiff.diff(oldText, newText);
+
+        assertEquals(newText, apply(oldText, patches));
+    }
+
+    @Test
+    void equalTextsNeedNoPatches() {
+        assertEquals(0, TextDiff.diff("same", "same").size());
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    private static String apply(String text, List<TextPatch> patches) {
+        StringBuilder result = new StringBuilder(text);
+        for (TextPatch patch : patches) {
+            result.replace(patch.getOffset(), patch.getOffset() + patch.getDeleteCount(), patch.getText());
+        }
+        return result.toString();
+    }
+}